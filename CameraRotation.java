@@ -0,0 +1,50 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import org.openstreetmap.josm.gui.util.imagery.Vector3D;
+
+/**
+ * The rotation of a camera as a matrix, to rotate the rays of a {@link RayTable} without trigonometry.
+ * <p>
+ * This is the same rotation as {@code CameraPlane} uses: first a pitch around the x axis, then a yaw around
+ * the y axis.
+ */
+final class CameraRotation {
+    final double m00;
+    final double m01;
+    final double m02;
+    final double m11;
+    final double m12;
+    final double m20;
+    final double m21;
+    final double m22;
+
+    /**
+     * Create a rotation
+     * @param yaw The rotation around the y axis (the polar angle of the rotation vector), in radians
+     * @param pitch The rotation around the x axis (the azimuthal angle of the rotation vector), in radians
+     */
+    CameraRotation(double yaw, double pitch) {
+        final double sinTheta = Math.sin(yaw);
+        final double cosTheta = Math.cos(yaw);
+        final double sinPhi = Math.sin(pitch);
+        final double cosPhi = Math.cos(pitch);
+        this.m00 = cosTheta;
+        this.m01 = -sinPhi * sinTheta;
+        this.m02 = cosPhi * sinTheta;
+        this.m11 = cosPhi;
+        this.m12 = sinPhi;
+        this.m20 = -sinTheta;
+        this.m21 = -sinPhi * cosTheta;
+        this.m22 = cosPhi * cosTheta;
+    }
+
+    /**
+     * Create a rotation from the rotation vector of a camera plane
+     * @param rotation The rotation vector
+     * @return The rotation
+     */
+    static CameraRotation of(Vector3D rotation) {
+        return new CameraRotation(rotation.getPolarAngle(), rotation.getAzimuthalAngle());
+    }
+}
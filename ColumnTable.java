@@ -0,0 +1,172 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import org.openstreetmap.josm.gui.util.imagery.CameraPlane;
+import org.openstreetmap.josm.gui.util.imagery.Vector3D;
+
+/**
+ * The rays of a {@link CameraPlane} that looks at the horizon, reduced to what a cylindrical image needs.
+ * <p>
+ * The ray through a pixel hits the unit cylinder at the azimuth of its column, and at a height that is linear in its
+ * row (the row offset divided by the horizontal distance of the ray). So one azimuth, one height and one height step
+ * per column describe the whole viewport. They only depend on the size of the viewport and are computed once when
+ * the viewer is resized; every frame then only adds the yaw and the vertical shift, see {@link #frame}.
+ */
+final class ColumnTable {
+    private final int width;
+    private final int height;
+    /** The azimuth of each column, relative to the view direction, in radians */
+    private final double[] azimuth;
+    /** The height on the unit cylinder of the top row of each column */
+    private final double[] top;
+    /** The change in height from one row to the next of each column */
+    private final double[] step;
+    private final double radiansPerPixel;
+
+    /**
+     * Create a new column table
+     * @param cameraPlane The camera plane to read the rays from. It <i>must not</i> be rotated.
+     * @param width The width of the camera plane
+     * @param height The height of the camera plane
+     */
+    ColumnTable(CameraPlane cameraPlane, int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.azimuth = new double[width];
+        this.top = new double[width];
+        this.step = new double[width];
+        final Point point = new Point();
+        for (int x = 0; x < width; x++) {
+            point.setLocation(x, 0);
+            final Vector3D topRay = cameraPlane.getVector3D(point);
+            point.setLocation(x, height - 1);
+            final Vector3D bottomRay = cameraPlane.getVector3D(point);
+            this.azimuth[x] = Math.atan2(topRay.getX(), topRay.getZ());
+            this.top[x] = topRay.getY() / Math.hypot(topRay.getX(), topRay.getZ());
+            final double bottom = bottomRay.getY() / Math.hypot(bottomRay.getX(), bottomRay.getZ());
+            this.step[x] = height > 1 ? (bottom - this.top[x]) / (height - 1) : 0;
+        }
+        this.radiansPerPixel = width > 1 ? Math.abs(this.azimuth[width / 2] - this.azimuth[width / 2 - 1]) : 0;
+    }
+
+    /**
+     * Get the width of the table
+     * @return The width in pixels
+     */
+    int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * Get the height of the table
+     * @return The height in pixels
+     */
+    int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Get the azimuth of a column, clamped to the viewport
+     * @param x The column
+     * @return The azimuth relative to the view direction, in radians, positive to the right
+     */
+    double getAzimuth(int x) {
+        return this.azimuth[Math.max(0, Math.min(this.width - 1, x))];
+    }
+
+    /**
+     * Get the height on the unit cylinder of a pixel, clamped to the viewport
+     * @param x The column
+     * @param y The row
+     * @return The height relative to the view center, positive downwards
+     */
+    double getHeight(int x, int y) {
+        final int column = Math.max(0, Math.min(this.width - 1, x));
+        return this.top[column] + Math.max(0, Math.min(this.height - 1, y)) * this.step[column];
+    }
+
+    /**
+     * Get the angle between two adjacent columns in the center of the table
+     * @return The angular size of a pixel, in radians
+     */
+    double getRadiansPerPixel() {
+        return this.radiansPerPixel;
+    }
+
+    /**
+     * Compute the source coordinates of every column for one frame
+     * @param yaw The azimuth of the view direction, in radians
+     * @param shift The height on the unit cylinder of the view center, positive downwards
+     * @param fieldOfView The horizontal field of view of the source image, in radians. If it is a full circle,
+     * the source wraps around.
+     * @param aspectRatio The width of the source image divided by its height
+     * @return The mapping of this frame
+     */
+    Frame frame(double yaw, double shift, double fieldOfView, double aspectRatio) {
+        final boolean wraps = fieldOfView >= 2 * Math.PI;
+        // The unit cylinder is as high as the source image, in source widths per radian
+        final double heightScale = aspectRatio / fieldOfView;
+        final float[] u = new float[this.width];
+        final float[] v = new float[this.width];
+        final float[] dv = new float[this.width];
+        for (int x = 0; x < this.width; x++) {
+            final double column = 0.5 + (this.azimuth[x] + yaw) / fieldOfView;
+            if (wraps) {
+                u[x] = (float) (column - Math.floor(column));
+            } else {
+                u[x] = column >= 0 && column <= 1 ? (float) column : Float.NaN;
+            }
+            v[x] = (float) (0.5 + (this.top[x] + shift) * heightScale);
+            dv[x] = (float) (this.step[x] * heightScale);
+        }
+        return new Frame(u, v, dv, wraps);
+    }
+
+    /**
+     * The source coordinates of every column for one frame. Within a column, the vertical source coordinate is
+     * linear in the row, so mapping a pixel takes one multiply-add and one sample.
+     */
+    static final class Frame {
+        /** The horizontal source coordinate of each column, {@code NaN} outside of the source */
+        private final float[] u;
+        /** The vertical source coordinate of the top row of each column */
+        private final float[] v;
+        /** The change in the vertical source coordinate from one row to the next of each column */
+        private final float[] dv;
+        /** Whether the source covers a full circle, so that its right edge is next to its left edge */
+        private final boolean wraps;
+
+        Frame(float[] u, float[] v, float[] dv, boolean wraps) {
+            this.u = u;
+            this.v = v;
+            this.dv = dv;
+            this.wraps = wraps;
+        }
+
+        /**
+         * Map the source image onto a part of the target image
+         * @param source The cylindrical source image
+         * @param target The image to draw on
+         * @param band The part of the target image to map
+         * @param quality The way to sample the source image
+         */
+        void mapping(PixelSource source, IntRaster target, Rectangle band, SamplingQuality quality) {
+            final Rectangle clipped = band.intersection(new Rectangle(0, 0,
+                    Math.min(this.u.length, target.getWidth()), target.getHeight()));
+            final int[] targetData = target.getData();
+            for (int y = clipped.y; y < clipped.y + clipped.height; y++) {
+                final int targetRow = target.getOffset() + y * target.getScanlineStride();
+                for (int x = clipped.x; x < clipped.x + clipped.width; x++) {
+                    final float column = this.u[x];
+                    final float row = this.v[x] + y * this.dv[x];
+                    // NaN columns fail the first comparison
+                    targetData[targetRow + x] = column >= 0 && row >= 0 && row <= 1
+                            ? source.sample(column, row, quality, this.wraps) : 0xFF000000;
+                }
+            }
+        }
+    }
+}
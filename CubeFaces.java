@@ -0,0 +1,232 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Rectangle;
+
+/**
+ * The six faces of a cube map, converted once from an equirectangular image or computed from a function of the
+ * direction.
+ * <p>
+ * Looking up the face pixel for a view ray only takes a comparison and two divisions, so rendering a frame
+ * from the faces does not need any trigonometry.
+ * <p>
+ * Face {@code i} looks along {@code FORWARD[i]}. Its texture coordinates (s, t), from -1 to 1, go along
+ * {@code RIGHT[i]} and {@code DOWN[i]}.
+ */
+final class CubeFaces {
+    private static final double TWO_PI = 2 * Math.PI;
+    private static final int POSITIVE_X = 0;
+    private static final int NEGATIVE_X = 1;
+    private static final int POSITIVE_Y = 2;
+    private static final int NEGATIVE_Y = 3;
+    private static final int POSITIVE_Z = 4;
+    private static final int NEGATIVE_Z = 5;
+    private static final double[][] FORWARD = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+    private static final double[][] RIGHT = {{0, 0, -1}, {0, 0, 1}, {1, 0, 0}, {1, 0, 0}, {1, 0, 0}, {-1, 0, 0}};
+    private static final double[][] DOWN = {{0, 1, 0}, {0, 1, 0}, {0, 0, -1}, {0, 0, 1}, {0, 1, 0}, {0, 1, 0}};
+
+    private final IntRaster[] faces;
+    private final int size;
+
+    private CubeFaces(IntRaster[] faces, int size) {
+        this.faces = faces;
+        this.size = size;
+    }
+
+    /**
+     * A function of a direction, such as the pixel of an image in that direction
+     */
+    @FunctionalInterface
+    interface DirectionFunction {
+        /**
+         * Evaluate the function
+         * @param x The x component of the (normalized) direction
+         * @param y The y component of the direction
+         * @param z The z component of the direction
+         * @return The value to store in the cube map for the direction
+         */
+        int apply(double x, double y, double z);
+    }
+
+    /**
+     * Convert an equirectangular image to a cube map
+     * @param source The equirectangular image
+     * @param size The width and height of each face
+     * @return The cube map
+     */
+    static CubeFaces of(IntRaster source, int size) {
+        return of(size, (x, y, z) -> source.sampleBilinear(0.5 + Math.atan2(x, z) / TWO_PI, 0.5 + Math.asin(y) / Math.PI));
+    }
+
+    /**
+     * Create a cube map by evaluating a function at the center of every face pixel
+     * @param size The width and height of each face
+     * @param function The function of the direction of a face pixel
+     * @return The cube map
+     */
+    static CubeFaces of(int size, DirectionFunction function) {
+        final IntRaster[] faces = new IntRaster[6];
+        for (int face = 0; face < faces.length; face++) {
+            faces[face] = IntRaster.of(IntRaster.createImage(size, size));
+            final double[] forward = FORWARD[face];
+            final double[] right = RIGHT[face];
+            final double[] down = DOWN[face];
+            final int[] data = faces[face].getData();
+            for (int j = 0; j < size; j++) {
+                final double t = 2 * (j + 0.5) / size - 1;
+                final int row = faces[face].getOffset() + j * faces[face].getScanlineStride();
+                for (int i = 0; i < size; i++) {
+                    final double s = 2 * (i + 0.5) / size - 1;
+                    final double x = forward[0] + s * right[0] + t * down[0];
+                    final double y = forward[1] + s * right[1] + t * down[1];
+                    final double z = forward[2] + s * right[2] + t * down[2];
+                    final double length = Math.sqrt(x * x + y * y + z * z);
+                    data[row + i] = function.apply(x / length, y / length, z / length);
+                }
+            }
+        }
+        return new CubeFaces(faces, size);
+    }
+
+    /**
+     * Get the memory used by the faces
+     * @return The number of bytes
+     */
+    long getMemoryUsage() {
+        return 6L * 4 * this.size * this.size;
+    }
+
+    /**
+     * Map the cube map onto the target image
+     * @param rayTable The rays of the viewport
+     * @param target The image to draw on
+     * @param visibleRect The part of the target image to map, in target coordinates
+     * @param rotation The current rotation of the camera
+     * @param scale The pixel at (x, y) in the target uses the ray at (x * scale, y * scale)
+     * @param quality The way to sample the faces
+     */
+    void mapping(RayTable rayTable, IntRaster target, Rectangle visibleRect, CameraRotation rotation, int scale,
+            SamplingQuality quality) {
+        final Rectangle clipped = visibleRect.intersection(new Rectangle(0, 0,
+                Math.min(RayTable.ceilDiv(rayTable.getWidth(), scale), target.getWidth()),
+                Math.min(RayTable.ceilDiv(rayTable.getHeight(), scale), target.getHeight())));
+        final float[] rayX = rayTable.getRayX();
+        final float[] rayY = rayTable.getRayY();
+        final float[] rayZ = rayTable.getRayZ();
+        final int[] targetData = target.getData();
+        final CameraRotation r = rotation;
+        for (int y = clipped.y; y < clipped.y + clipped.height; y++) {
+            final int targetRow = target.getOffset() + y * target.getScanlineStride();
+            for (int x = clipped.x; x < clipped.x + clipped.width; x++) {
+                final int index = y * scale * rayTable.getWidth() + x * scale;
+                final double rx = rayX[index];
+                final double ry = rayY[index];
+                final double rz = rayZ[index];
+                targetData[targetRow + x] = sample(r.m00 * rx + r.m01 * ry + r.m02 * rz, r.m11 * ry + r.m12 * rz,
+                        r.m20 * rx + r.m21 * ry + r.m22 * rz, quality);
+            }
+        }
+    }
+
+    /**
+     * Sample the cube map along a direction
+     * @param x The x component of the direction
+     * @param y The y component of the direction
+     * @param z The z component of the direction
+     * @param quality The way to sample the face
+     * @return The packed ARGB pixel
+     */
+    int sample(double x, double y, double z, SamplingQuality quality) {
+        return sample(x, y, z, quality, -1);
+    }
+
+    /**
+     * Sample a cube map of packed positions, such as the table of a {@link FisheyeLens}, along a direction.
+     * <p>
+     * The position is interpolated between the four nearest entries, so that a table of any size gives smooth
+     * positions. Where one of them is {@code -1} (no position), or they jump, e.g. from one lens circle to the
+     * other, the nearest entry is used instead.
+     * @param x The x component of the direction
+     * @param y The y component of the direction
+     * @param z The z component of the direction
+     * @param maximumStep The largest difference of a coordinate between the entries that are interpolated
+     * @return The position, packed as {@code u << 16 | v}, or {@code -1}
+     */
+    int samplePosition(double x, double y, double z, int maximumStep) {
+        return sample(x, y, z, SamplingQuality.BILINEAR, maximumStep);
+    }
+
+    /**
+     * Sample the cube map along a direction, as pixels or as positions
+     * @param x The x component of the direction
+     * @param y The y component of the direction
+     * @param z The z component of the direction
+     * @param quality The way to sample the face
+     * @param maximumStep The largest step between packed positions to interpolate, or {@code -1} to sample pixels
+     * @return The packed ARGB pixel, or the packed position
+     */
+    private int sample(double x, double y, double z, SamplingQuality quality, int maximumStep) {
+        final double absX = Math.abs(x);
+        final double absY = Math.abs(y);
+        final double absZ = Math.abs(z);
+        final int face;
+        final double s;
+        final double t;
+        if (absX >= absY && absX >= absZ) {
+            face = x > 0 ? POSITIVE_X : NEGATIVE_X;
+            s = -z / x;
+            t = y / absX;
+        } else if (absY >= absZ) {
+            face = y > 0 ? POSITIVE_Y : NEGATIVE_Y;
+            s = x / absY;
+            t = -z / y;
+        } else {
+            face = z > 0 ? POSITIVE_Z : NEGATIVE_Z;
+            s = x / z;
+            t = y / absZ;
+        }
+        final double i = (s + 1) * 0.5 * this.size - 0.5;
+        final double j = (t + 1) * 0.5 * this.size - 0.5;
+        final IntRaster raster = this.faces[face];
+        if (quality == SamplingQuality.BILINEAR) {
+            // Filtering stops at the face edges
+            final double clampedI = Math.max(0, Math.min(this.size - 1, i));
+            final double clampedJ = Math.max(0, Math.min(this.size - 1, j));
+            final int i0 = (int) clampedI;
+            final int j0 = (int) clampedJ;
+            final int i1 = Math.min(i0 + 1, this.size - 1);
+            final int j1 = Math.min(j0 + 1, this.size - 1);
+            if (maximumStep >= 0) {
+                return interpolatePosition(raster, i0, j0, i1, j1, clampedI - i0, clampedJ - j0, maximumStep);
+            }
+            final int weightI = (int) ((clampedI - i0) * 256);
+            return IntRaster.lerp(IntRaster.lerp(raster.getPixel(i0, j0), raster.getPixel(i1, j0), weightI),
+                    IntRaster.lerp(raster.getPixel(i0, j1), raster.getPixel(i1, j1), weightI),
+                    (int) ((clampedJ - j0) * 256));
+        }
+        return raster.getPixel(Math.max(0, Math.min(this.size - 1, (int) (i + 0.5))),
+                Math.max(0, Math.min(this.size - 1, (int) (j + 0.5))));
+    }
+
+    private static int interpolatePosition(IntRaster raster, int i0, int j0, int i1, int j1, double weightI,
+            double weightJ, int maximumStep) {
+        final int p00 = raster.getPixel(i0, j0);
+        final int p10 = raster.getPixel(i1, j0);
+        final int p01 = raster.getPixel(i0, j1);
+        final int p11 = raster.getPixel(i1, j1);
+        final int minU = Math.min(Math.min(p00 >>> 16, p10 >>> 16), Math.min(p01 >>> 16, p11 >>> 16));
+        final int maxU = Math.max(Math.max(p00 >>> 16, p10 >>> 16), Math.max(p01 >>> 16, p11 >>> 16));
+        final int minV = Math.min(Math.min(p00 & 0xFFFF, p10 & 0xFFFF), Math.min(p01 & 0xFFFF, p11 & 0xFFFF));
+        final int maxV = Math.max(Math.max(p00 & 0xFFFF, p10 & 0xFFFF), Math.max(p01 & 0xFFFF, p11 & 0xFFFF));
+        if (p00 == -1 || p10 == -1 || p01 == -1 || p11 == -1
+                || maxU - minU > maximumStep || maxV - minV > maximumStep) {
+            final int nearestI = weightI < 0.5 ? i0 : i1;
+            return raster.getPixel(nearestI, weightJ < 0.5 ? j0 : j1);
+        }
+        final double u0 = (p00 >>> 16) + ((p10 >>> 16) - (p00 >>> 16)) * weightI;
+        final double u1 = (p01 >>> 16) + ((p11 >>> 16) - (p01 >>> 16)) * weightI;
+        final double v0 = (p00 & 0xFFFF) + ((p10 & 0xFFFF) - (p00 & 0xFFFF)) * weightI;
+        final double v1 = (p01 & 0xFFFF) + ((p11 & 0xFFFF) - (p01 & 0xFFFF)) * weightI;
+        return (int) Math.round(u0 + (u1 - u0) * weightJ) << 16 | (int) Math.round(v0 + (v1 - v0) * weightJ);
+    }
+}
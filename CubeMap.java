@@ -0,0 +1,107 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.gui.util.imagery.Vector3D;
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * A viewer for 360 images in the equirectangular projection that converts them to a cube map once.
+ * <p>
+ * The conversion runs in the background. Afterwards, every pixel of a frame is looked up on the visible
+ * cube face along its view ray, which needs no trigonometry. Until the conversion is done, frames are
+ * rendered the same way as {@link Equirectangular} renders them.
+ * <p>
+ * This viewer is used for equirectangular images if {@link #USE_FOR_EQUIRECTANGULAR} is set.
+ */
+public class CubeMap extends Equirectangular {
+    /** Use the cube map viewer instead of {@link Equirectangular} for equirectangular images */
+    public static final BooleanProperty USE_FOR_EQUIRECTANGULAR = new BooleanProperty(
+            "geoimage.viewer.equirectangular.cubemap", false);
+    /** The maximum width and height of a cube face */
+    private static final IntegerProperty MAXIMUM_FACE_SIZE = new IntegerProperty("geoimage.viewer.cubemap.face.size", 2048);
+    private static final ExecutorService CONVERTER = Executors.newSingleThreadExecutor(
+            Utils.newThreadFactory("cubemap-converter-%d", Thread.MIN_PRIORITY));
+
+    /** The last conversion that was started */
+    private final AtomicReference<Conversion> conversion = new AtomicReference<>();
+
+    /**
+     * The conversion of one image to a cube map
+     */
+    private static final class Conversion {
+        /** This is only compared by identity */
+        private final BufferedImage image;
+        private volatile Future<?> future;
+        private volatile CubeFaces faces;
+
+        Conversion(BufferedImage image) {
+            this.image = image;
+        }
+    }
+
+    @Override
+    public void paintImage(Graphics g, BufferedImage image, Rectangle target, Rectangle visibleRect) {
+        if (getTiledSource() == null) {
+            startConversion(image);
+        }
+        super.paintImage(g, image, target, visibleRect);
+    }
+
+    @Override
+    void mapBand(PixelSource source, RayTable currentRayTable, IntRaster target, Rectangle band, Vector3D rotation,
+            int scale, SamplingQuality quality) {
+        final Conversion currentConversion = this.conversion.get();
+        final CubeFaces currentFaces = currentConversion != null ? currentConversion.faces : null;
+        if (currentFaces == null || getTiledSource() != null) {
+            super.mapBand(source, currentRayTable, target, band, rotation, scale, quality);
+        } else {
+            currentFaces.mapping(currentRayTable, target, band, CameraRotation.of(rotation), scale, quality);
+        }
+    }
+
+    /**
+     * Start converting an image to a cube map, unless it is the image that was converted last
+     * @param image The equirectangular image
+     */
+    private void startConversion(BufferedImage image) {
+        final Conversion current = this.conversion.get();
+        if (current != null && current.image == image) {
+            return;
+        }
+        final Conversion next = new Conversion(image);
+        if (!this.conversion.compareAndSet(current, next)) {
+            // Another thread has just started a conversion
+            return;
+        }
+        if (current != null && current.future != null) {
+            current.future.cancel(true);
+        }
+        final MipPyramid pyramid = getSourcePyramid(image);
+        final int size = Math.max(1, Math.min(MAXIMUM_FACE_SIZE.get(), image.getWidth() / 4));
+        // A face covers a quarter of the width of the image, so use the level with about one pixel per face pixel
+        final int level = Math.min(pyramid.getLevelCount() - 1,
+                31 - Integer.numberOfLeadingZeros(Math.max(1, image.getWidth() / 4 / size)));
+        next.future = CONVERTER.submit(() -> {
+            if (this.conversion.get() != next) {
+                return;
+            }
+            next.faces = CubeFaces.of(pyramid.getLevel(level), size);
+            Logging.debug("Converted a {0}x{1} image to a cube map with {2}x{2} faces using {3} bytes",
+                    image.getWidth(), image.getHeight(), size, next.faces.getMemoryUsage());
+            if (this.conversion.get() == next) {
+                invalidate();
+            }
+        });
+    }
+}
@@ -0,0 +1,304 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openstreetmap.josm.data.imagery.street_level.Projections;
+import org.openstreetmap.josm.data.preferences.DoubleProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.gui.layer.geoimage.ImageDisplay;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.gui.util.imagery.CameraPlane;
+import org.openstreetmap.josm.gui.util.imagery.Vector3D;
+
+/**
+ * A viewer for (partial) panoramas that use the cylindrical projection.
+ * <p>
+ * The view always looks at the horizon, so vertical lines stay vertical. Dragging up and down shifts the view
+ * along the cylinder instead of pitching it. Each column of the view then maps to one column of the source, and
+ * rows map linearly within a column: a frame only needs one {@link ColumnTable.Frame column mapping}, computed
+ * without any trigonometry from the {@link ColumnTable} of the viewport. Dragging, in particular sideways, is
+ * therefore about as cheap as copying the pixels.
+ * <p>
+ * Cylindrical panoramas are tagged as perspective images, so the viewer is picked by {@link #isCylindricalPanorama}
+ * instead of by projection, see {@link ImageProjectionRegistry#registerDetectedViewer}. That is only done once the
+ * {@code geoimage.viewer.cylindrical.aspect} preference is set.
+ * @since xxx
+ */
+public class Cylindrical extends ComponentAdapter implements IImageViewer {
+    /** The horizontal field of view of the source images, in degrees. Panoramas narrower than 360 degrees do not wrap. */
+    private static final DoubleProperty FIELD_OF_VIEW = new DoubleProperty("geoimage.viewer.cylindrical.fov", 360);
+    /** The number of threads used to map the offscreen image */
+    private static final IntegerProperty PARALLELISM = new IntegerProperty("geoimage.viewer.cylindrical.parallelism",
+            Runtime.getRuntime().availableProcessors());
+    /** The maximum memory in MiB used by the reduced levels of the mip pyramid of a source image */
+    private static final IntegerProperty MIPMAP_MEMORY = new IntegerProperty(
+            "geoimage.viewer.cylindrical.mipmap.memory", 256);
+    /**
+     * The smallest width to height ratio of perspective images that are shown as cylindrical panoramas,
+     * {@code 0} to never show them so. This is off by default, since wide perspective crops and partial panoramas
+     * look the same.
+     */
+    private static final DoubleProperty MINIMUM_ASPECT_RATIO = new DoubleProperty(
+            "geoimage.viewer.cylindrical.aspect", 0);
+
+    private final ImageBufferPool offscreenPool = new ImageBufferPool();
+    /** The viewport, buffer and view direction. Every change that affects the rendered frame publishes a new version. */
+    private final AtomicReference<ViewState> state = new AtomicReference<>(ViewState.INITIAL);
+    /** The state the offscreen image was last rendered for */
+    private final AtomicReference<RenderedFrame> renderedFrame = new AtomicReference<>();
+    /** The last source image and its mip pyramid */
+    private final AtomicReference<SourcePyramid> sourcePyramid = new AtomicReference<>();
+    private final AtomicReference<ParallelMapper> parallelMapper = new AtomicReference<>();
+    private volatile SamplingQuality samplingQuality = SamplingQuality.BILINEAR;
+    /** How far the view center can be shifted from the middle of the last source image, on the unit cylinder */
+    private volatile double maximumShift;
+    /** The metrics to record to, {@code null} to not even read the clock */
+    private volatile RenderMetrics metrics = RenderMetrics.createIfEnabled();
+
+    /**
+     * An immutable snapshot of the viewport, the buffer to render into and the view direction
+     */
+    private static final class ViewState {
+        static final ViewState INITIAL = new ViewState(null, null, null, 0, 0, 0);
+
+        private final ColumnTable columnTable;
+        private final BufferedImage offscreenImage;
+        private final IntRaster offscreenRaster;
+        /** The azimuth of the view direction, in radians */
+        private final double yaw;
+        /** The height on the unit cylinder of the view center, positive downwards */
+        private final double shift;
+        private final long version;
+
+        ViewState(ColumnTable columnTable, BufferedImage offscreenImage, IntRaster offscreenRaster, double yaw,
+                double shift, long version) {
+            this.columnTable = columnTable;
+            this.offscreenImage = offscreenImage;
+            this.offscreenRaster = offscreenRaster;
+            this.yaw = yaw;
+            this.shift = shift;
+            this.version = version;
+        }
+
+        ViewState withViewport(ColumnTable newColumnTable, BufferedImage newOffscreenImage) {
+            return new ViewState(newColumnTable, newOffscreenImage, IntRaster.of(newOffscreenImage), this.yaw,
+                    this.shift, this.version + 1);
+        }
+
+        /**
+         * Get a copy of this state, moved so that the point of the cylinder under one point of the viewport moves
+         * to another
+         * @param from The point the mouse was dragged from
+         * @param to The point the mouse has been dragged to
+         * @param maximumYaw The largest azimuth of the view direction, in radians
+         * @param maximumShift The largest height of the view center
+         * @return The new state, or this state if the viewer has not been sized yet
+         */
+        ViewState withDelta(Point from, Point to, double maximumYaw, double maximumShift) {
+            if (this.columnTable == null) {
+                return this;
+            }
+            final double newYaw = this.yaw + this.columnTable.getAzimuth(from.x) - this.columnTable.getAzimuth(to.x);
+            final double newShift = this.shift + this.columnTable.getHeight(from.x, from.y)
+                    - this.columnTable.getHeight(to.x, to.y);
+            return new ViewState(this.columnTable, this.offscreenImage, this.offscreenRaster,
+                    Math.max(-maximumYaw, Math.min(maximumYaw, newYaw)),
+                    Math.max(-maximumShift, Math.min(maximumShift, newShift)), this.version + 1);
+        }
+
+        ViewState nextVersion() {
+            return new ViewState(this.columnTable, this.offscreenImage, this.offscreenRaster, this.yaw, this.shift,
+                    this.version + 1);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This is empty: the image metadata does not tell cylindrical panoramas apart, see {@link #isCylindricalPanorama}.
+     */
+    @Override
+    public Set<Projections> getSupportedProjections() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Check if an image looks like a cylindrical panorama, such as the panoramas of phone cameras, which are
+     * tagged as perspective images: it is at least {@code geoimage.viewer.cylindrical.aspect} times as wide
+     * as it is high. This is never the case until that preference is set.
+     * @param image The image, e.g. one tagged as a perspective image
+     * @return {@code true} if the image should be shown with this viewer
+     */
+    static boolean isCylindricalPanorama(BufferedImage image) {
+        final double minimumAspectRatio = MINIMUM_ASPECT_RATIO.get();
+        return minimumAspectRatio > 0 && image.getWidth() >= minimumAspectRatio * image.getHeight();
+    }
+
+    @Override
+    public void paintImage(Graphics g, BufferedImage image, Rectangle target, Rectangle visibleRect) {
+        final ViewState currentState = this.state.get();
+        final ColumnTable currentColumnTable = currentState.columnTable;
+        if (currentColumnTable == null) {
+            return;
+        }
+        final RenderMetrics currentMetrics = this.metrics;
+        final double fieldOfView = getFieldOfView();
+        // The unit cylinder has a radius of (width / field of view) source pixels
+        this.maximumShift = image.getHeight() / 2d * fieldOfView / image.getWidth();
+        final RenderedFrame lastFrame = this.renderedFrame.get();
+        if (lastFrame == null || !lastFrame.isRendered(currentState.version, image, visibleRect)) {
+            final long remapStart = currentMetrics != null ? System.nanoTime() : 0;
+            final MipPyramid pyramid = getSourcePyramid(image);
+            // The pyramid measures pixels in radians of a full circle
+            final PixelSource source = pyramid.getLevel(pyramid.getLevel(
+                    currentColumnTable.getRadiansPerPixel() * 2 * Math.PI / fieldOfView));
+            final ColumnTable.Frame frame = currentColumnTable.frame(currentState.yaw, currentState.shift, fieldOfView,
+                    image.getWidth() / (double) image.getHeight());
+            final IntRaster currentOffscreenRaster = currentState.offscreenRaster;
+            final SamplingQuality quality = this.samplingQuality;
+            ParallelMapper.getOrCreate(this.parallelMapper, PARALLELISM).mapping(visibleRect,
+                    band -> frame.mapping(source, currentOffscreenRaster, band, quality));
+            if (currentMetrics != null) {
+                currentMetrics.recordRemap(System.nanoTime() - remapStart);
+            }
+            this.renderedFrame.set(new RenderedFrame(currentState.version, image, visibleRect));
+        }
+        final BufferedImage currentOffscreenImage = currentState.offscreenImage;
+        if (target == null) {
+            target = new Rectangle(0, 0, currentOffscreenImage.getWidth(), currentOffscreenImage.getHeight());
+        }
+        final long blitStart = currentMetrics != null ? System.nanoTime() : 0;
+        g.drawImage(currentOffscreenImage, target.x, target.y, target.x + target.width, target.y + target.height,
+                visibleRect.x, visibleRect.y, visibleRect.x + visibleRect.width, visibleRect.y + visibleRect.height,
+                null);
+        if (currentMetrics != null) {
+            currentMetrics.recordBlit(System.nanoTime() - blitStart);
+        }
+    }
+
+    /**
+     * Get the horizontal field of view of the source images
+     * @return The field of view, in radians, from 1 degree to a full circle
+     */
+    private static double getFieldOfView() {
+        return Math.toRadians(Math.max(1, Math.min(360, FIELD_OF_VIEW.get())));
+    }
+
+    private MipPyramid getSourcePyramid(BufferedImage image) {
+        final SourcePyramid current = this.sourcePyramid.get();
+        if (current != null && current.isOf(image)) {
+            return current.getPyramid();
+        }
+        final MipPyramid pyramid = SourcePyramid.build(image, MIPMAP_MEMORY.get() * 1024L * 1024L);
+        this.sourcePyramid.set(new SourcePyramid(image, pyramid));
+        return pyramid;
+    }
+
+    /**
+     * Get the way the source image is sampled
+     * @return The current sampling quality
+     */
+    public SamplingQuality getSamplingQuality() {
+        return this.samplingQuality;
+    }
+
+    /**
+     * Set the way the source image is sampled
+     * @param samplingQuality The sampling quality to use for the following frames
+     */
+    public void setSamplingQuality(SamplingQuality samplingQuality) {
+        this.samplingQuality = Objects.requireNonNull(samplingQuality, "samplingQuality");
+        this.state.updateAndGet(ViewState::nextVersion);
+    }
+
+    @Override
+    public ImageDisplay.VisRect getDefaultVisibleRectangle(Component component, Image image) {
+        return new ImageDisplay.VisRect(0, 0, component.getSize().width, component.getSize().height);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The pitch is the elevation of the view center, which the view shifts to rather than rotates to.
+     */
+    @Override
+    public Vector3D getRotation() {
+        final ViewState currentState = this.state.get();
+        return new Vector3D(Vector3D.VectorType.RPA, 1, currentState.yaw, Math.atan(currentState.shift));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The column table is small (three values per column), so it is rebuilt on every resize event.
+     */
+    @Override
+    public void componentResized(ComponentEvent e) {
+        final Component imgDisplay = e.getComponent();
+        final int width = imgDisplay.getWidth();
+        final int height = imgDisplay.getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        final ColumnTable currentColumnTable = this.state.get().columnTable;
+        if (currentColumnTable == null || currentColumnTable.getWidth() != width
+                || currentColumnTable.getHeight() != height) {
+            final long allocations = this.offscreenPool.getAllocationCount();
+            final BufferedImage temporaryOffscreenImage = this.offscreenPool.get(width, height);
+            final RenderMetrics currentMetrics = this.metrics;
+            if (currentMetrics != null) {
+                currentMetrics.recordBufferAllocations(this.offscreenPool.getAllocationCount() - allocations);
+            }
+            final ColumnTable temporaryColumnTable = new ColumnTable(new CameraPlane(width, height), width, height);
+            // Keep any drag that was made concurrently
+            this.state.updateAndGet(current -> current.withViewport(temporaryColumnTable, temporaryOffscreenImage));
+        }
+        if (imgDisplay instanceof ImageDisplay) {
+            ((ImageDisplay) imgDisplay).updateVisibleRectangle();
+        }
+        GuiHelper.runInEDT(imgDisplay::revalidate);
+    }
+
+    @Override
+    public void mouseDragged(final Point from, final Point to, ImageDisplay.VisRect currentVisibleRect) {
+        if (from != null && to != null) {
+            final double fieldOfView = getFieldOfView();
+            // Partial panoramas stop when the view center reaches their edge
+            final double maximumYaw = fieldOfView >= 2 * Math.PI ? Double.POSITIVE_INFINITY : fieldOfView / 2;
+            final double currentMaximumShift = this.maximumShift;
+            this.state.updateAndGet(current -> current.withDelta(from, to, maximumYaw, currentMaximumShift));
+        }
+    }
+
+    @Override
+    public RenderMetrics getRenderMetrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void setRenderMetrics(RenderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void checkAndModifyVisibleRectSize(Image image, ImageDisplay.VisRect visibleRect) {
+        IImageViewer.super.checkAndModifyVisibleRectSize(this.state.get().offscreenImage, visibleRect);
+    }
+
+    @Override
+    public Image getMaxImageSize(ImageDisplay imageDisplay, Image image) {
+        return this.state.get().offscreenImage;
+    }
+}
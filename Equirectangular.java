@@ -3,20 +3,33 @@ package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
 
 import java.awt.Component;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
+import java.io.UncheckedIOException;
 import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.Timer;
 
 import org.openstreetmap.josm.data.imagery.street_level.Projections;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.gui.layer.geoimage.ImageDisplay;
 import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.gui.util.imagery.CameraPlane;
 import org.openstreetmap.josm.gui.util.imagery.Vector3D;
+import org.openstreetmap.josm.tools.Logging;
 
 /**
  * A class for showing 360 images that use the equirectangular projection
@@ -24,29 +37,423 @@ import org.openstreetmap.josm.gui.util.imagery.Vector3D;
  * @since 18246
  */
 public class Equirectangular extends ComponentAdapter implements IImageViewer {
-    private volatile CameraPlane cameraPlane;
-    private volatile BufferedImage offscreenImage;
+    /**
+     * The ways the offscreen image can be mapped from the source image
+     */
+    public enum MappingMode {
+        /** Let {@link CameraPlane#mapping} compute the view ray of every pixel on every frame */
+        CAMERA_PLANE,
+        /** Rotate the view rays that were precomputed when the viewer was resized */
+        RAY_TABLE,
+        /**
+         * Like {@link #RAY_TABLE}, with approximations of atan2 and asin that are off by at most
+         * {@link FastTrig#MAXIMUM_ERROR} radians, far less than a source pixel. This is mostly faster
+         * when the Vector API is not available.
+         */
+        FAST_MATH
+    }
+
+    /** The number of threads used to map the offscreen image */
+    private static final IntegerProperty PARALLELISM = new IntegerProperty("geoimage.viewer.equirectangular.parallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    /** The factor by which the resolution is reduced while dragging, {@code 1} to always render at full resolution */
+    private static final IntegerProperty PROGRESSIVE_SCALE = new IntegerProperty(
+            "geoimage.viewer.equirectangular.progressive.scale", 2);
+
+    /** The maximum memory in MiB used by the reduced levels of the mip pyramid of a source image */
+    private static final IntegerProperty MIPMAP_MEMORY = new IntegerProperty(
+            "geoimage.viewer.equirectangular.mipmap.memory", 256);
+
+    /** The kernel of the {@link MappingMode#FAST_MATH} mode */
+    private static final SphericalKernel FAST_KERNEL = new FastSphericalKernel();
+
+    /** Resize events closer together than this (in milliseconds) are coalesced */
+    private static final int RESIZE_DELAY = 100;
+
+    /** A drag has ended once no drag event has arrived for this long (in milliseconds) */
+    private static final int DRAG_END_DELAY = 150;
+
+    private final ImageBufferPool offscreenPool = new ImageBufferPool();
+    private final ImageBufferPool previewPool = new ImageBufferPool();
+    /** Only used on the EDT */
+    private Timer resizeTimer;
+    /** Only used on the EDT */
+    private Component pendingResize;
+    /** Only used on the EDT */
+    private Timer dragTimer;
+    /** The camera, buffers and rotation. Every change that affects the rendered frame publishes a new version. */
+    private final AtomicReference<RenderState> state = new AtomicReference<>(RenderState.INITIAL);
+    /** The state the offscreen image was last rendered for */
+    private final AtomicReference<RenderedFrame> renderedFrame = new AtomicReference<>();
+    /** The last source image and its mip pyramid */
+    private final AtomicReference<SourcePyramid> sourcePyramid = new AtomicReference<>();
+    /** The mip pyramids of images that are likely to be painted soon. Images are compared by identity. */
+    private final Map<BufferedImage, MipPyramid> preparedPyramids = new ConcurrentHashMap<>();
+    private final AtomicReference<ParallelMapper> parallelMapper = new AtomicReference<>();
+    private volatile Component component;
+    private volatile boolean dragging;
+    private volatile TiledImageSource tiledSource;
+    private volatile MappingMode mappingMode = MappingMode.RAY_TABLE;
+    private volatile SamplingQuality samplingQuality = SamplingQuality.BILINEAR;
+    private final AtomicLong remapsPerformed = new AtomicLong();
+    private final AtomicLong remapsSkipped = new AtomicLong();
+    /** The metrics to record to, {@code null} to not even read the clock */
+    private volatile RenderMetrics metrics = RenderMetrics.createIfEnabled();
+    /** Whether a drag step has not been painted yet. Only used while recording metrics. */
+    private final AtomicBoolean dragPending = new AtomicBoolean();
 
     @Override
     public Set<Projections> getSupportedProjections() {
         return Collections.singleton(Projections.EQUIRECTANGULAR);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If a tile of the tiled source cannot be decoded, the error is logged, nothing is painted for this frame, and
+     * the following frames paint the image passed here instead of the tiled source.
+     */
     @Override
     public void paintImage(Graphics g, BufferedImage image, Rectangle target, Rectangle visibleRect) {
-        final CameraPlane currentCameraPlane;
-        final BufferedImage currentOffscreenImage;
-        synchronized (this) {
-            currentCameraPlane = this.cameraPlane;
-            currentOffscreenImage = this.offscreenImage;
+        final TiledImageSource currentTiledSource = this.tiledSource;
+        try {
+            paintFrame(g, image, currentTiledSource, target, visibleRect);
+        } catch (UncheckedIOException e) {
+            // Only the tiles are read from a file while painting
+            if (currentTiledSource == null) {
+                throw e;
+            }
+            Logging.warn("Cannot decode the tiles of {0}, painting the image without them: {1}",
+                    currentTiledSource.getFile(), e.getMessage());
+            Logging.debug(e);
+            if (this.tiledSource == currentTiledSource) {
+                this.tiledSource = null;
+                invalidate();
+            }
+        }
+    }
+
+    /**
+     * Paint a frame
+     * @param g The graphics to paint on
+     * @param image The source image, ignored if there is a tiled source
+     * @param currentTiledSource The tiled source, may be {@code null}
+     * @param target The target area
+     * @param visibleRect The visible rectangle
+     * @throws UncheckedIOException if a tile of the tiled source cannot be decoded
+     */
+    private void paintFrame(Graphics g, BufferedImage image, TiledImageSource currentTiledSource, Rectangle target,
+            Rectangle visibleRect) {
+        final RenderState currentState = this.state.get();
+        final RayTable currentRayTable = currentState.getRayTable();
+        final BufferedImage currentOffscreenImage = currentState.getOffscreenImage();
+        final IntRaster currentPreviewRaster = currentState.getPreviewRaster();
+        final SamplingQuality quality = this.samplingQuality;
+        final RenderMetrics currentMetrics = this.metrics;
+        if (currentMetrics != null) {
+            this.dragPending.set(false);
+        }
+        // Tiles can only be sampled through the ray table
+        final boolean useRayTable = currentRayTable != null
+                && (this.mappingMode != MappingMode.CAMERA_PLANE || currentTiledSource != null);
+        if (useRayTable && this.dragging && currentPreviewRaster != null) {
+            final PixelSource source = getPixelSource(image, currentTiledSource,
+                    currentRayTable.getRadiansPerPixel() * currentState.getPreviewScale());
+            this.remapsPerformed.incrementAndGet();
+            paintPreview(g, source, currentRayTable, currentPreviewRaster, currentState.getPreviewScale(),
+                    currentState.getRotation(), quality, target, visibleRect, currentMetrics);
+            return;
+        }
+        final RenderedFrame lastFrame = this.renderedFrame.get();
+        if (lastFrame != null && lastFrame.isRendered(currentState.getVersion(), image, visibleRect)) {
+            this.remapsSkipped.incrementAndGet();
+        } else {
+            final long remapStart = currentMetrics != null ? System.nanoTime() : 0;
+            if (useRayTable) {
+                final PixelSource source = getPixelSource(image, currentTiledSource, currentRayTable.getRadiansPerPixel());
+                final Vector3D rotation = currentState.getRotation();
+                final IntRaster currentOffscreenRaster = currentState.getOffscreenRaster();
+                getParallelMapper().mapping(visibleRect,
+                        band -> mapBand(source, currentRayTable, currentOffscreenRaster, band, rotation, 1, quality));
+            } else {
+                final BufferedImage source = getSourcePyramid(image).getLevel(0).getImage();
+                final CameraPlane currentCameraPlane = currentState.getCameraPlane();
+                // The camera plane keeps its own rotation, so this (legacy) mode has to lock it while mapping
+                synchronized (currentCameraPlane) {
+                    currentCameraPlane.setRotation(currentState.getRotation());
+                    getParallelMapper().mapping(visibleRect,
+                            band -> currentCameraPlane.mapping(source, currentOffscreenImage, band));
+                }
+            }
+            if (currentMetrics != null) {
+                currentMetrics.recordRemap(System.nanoTime() - remapStart);
+            }
+            this.remapsPerformed.incrementAndGet();
+            this.renderedFrame.set(new RenderedFrame(currentState.getVersion(), image, visibleRect));
         }
-        currentCameraPlane.mapping(image, currentOffscreenImage, visibleRect);
         if (target == null) {
             target = new Rectangle(0, 0, currentOffscreenImage.getWidth(null), currentOffscreenImage.getHeight(null));
         }
+        final long blitStart = currentMetrics != null ? System.nanoTime() : 0;
         g.drawImage(currentOffscreenImage, target.x, target.y, target.x + target.width, target.y + target.height,
                 visibleRect.x, visibleRect.y, visibleRect.x + visibleRect.width, visibleRect.y + visibleRect.height,
                 null);
+        if (currentMetrics != null) {
+            currentMetrics.recordBlit(System.nanoTime() - blitStart);
+        }
+    }
+
+    /**
+     * Get the number of frames for which the offscreen image was remapped, including reduced resolution frames
+     * @return The number of remaps since the viewer was created
+     */
+    public long getPerformedRemapCount() {
+        return this.remapsPerformed.get();
+    }
+
+    /**
+     * Get the number of frames for which the last offscreen image was drawn again, since neither the rotation,
+     * the viewport, the source image nor a setting had changed
+     * @return The number of skipped remaps since the viewer was created
+     */
+    public long getSkippedRemapCount() {
+        return this.remapsSkipped.get();
+    }
+
+    /**
+     * Paint the image at a reduced resolution and scale it up to the target
+     * @param g The graphics to paint on
+     * @param source The source image
+     * @param currentRayTable The ray table for the full resolution
+     * @param preview The reduced resolution image
+     * @param scale The factor by which the resolution of the preview is reduced
+     * @param rotation The current rotation
+     * @param quality The way to sample the source image
+     * @param target The target area
+     * @param visibleRect The visible rectangle, in full resolution coordinates
+     * @param currentMetrics The metrics to record to, may be {@code null}
+     */
+    private void paintPreview(Graphics g, PixelSource source, RayTable currentRayTable, IntRaster preview, int scale,
+            Vector3D rotation, SamplingQuality quality, Rectangle target, Rectangle visibleRect,
+            RenderMetrics currentMetrics) {
+        final Rectangle previewRect = new Rectangle(visibleRect.x / scale, visibleRect.y / scale,
+                RayTable.ceilDiv(visibleRect.width, scale), RayTable.ceilDiv(visibleRect.height, scale));
+        final long remapStart = currentMetrics != null ? System.nanoTime() : 0;
+        getParallelMapper().mapping(previewRect,
+                band -> mapBand(source, currentRayTable, preview, band, rotation, scale, quality));
+        final long blitStart = currentMetrics != null ? System.nanoTime() : 0;
+        if (currentMetrics != null) {
+            currentMetrics.recordRemap(blitStart - remapStart);
+        }
+        if (target == null) {
+            target = new Rectangle(0, 0, currentRayTable.getWidth(), currentRayTable.getHeight());
+        }
+        final Graphics2D g2d = (Graphics2D) g.create();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(preview.getImage(), target.x, target.y, target.x + target.width, target.y + target.height,
+                    previewRect.x, previewRect.y, previewRect.x + previewRect.width, previewRect.y + previewRect.height,
+                    null);
+        } finally {
+            g2d.dispose();
+        }
+        if (currentMetrics != null) {
+            currentMetrics.recordBlit(System.nanoTime() - blitStart);
+        }
+    }
+
+    /**
+     * Map a band of the target image through the ray table.
+     * Subclasses can override this to sample something else than the equirectangular source.
+     * @param source The equirectangular source to sample
+     * @param currentRayTable The ray table of the viewport
+     * @param target The image to draw on
+     * @param band The part of the target image to map, in target coordinates
+     * @param rotation The current rotation
+     * @param scale The factor by which the resolution of the target is reduced
+     * @param quality The way to sample the source
+     */
+    void mapBand(PixelSource source, RayTable currentRayTable, IntRaster target, Rectangle band, Vector3D rotation,
+            int scale, SamplingQuality quality) {
+        final SphericalKernel kernel = this.mappingMode == MappingMode.FAST_MATH ? FAST_KERNEL : SphericalKernel.getDefault();
+        currentRayTable.mapping(source, target, band, rotation, scale, quality, kernel);
+    }
+
+    /**
+     * Discard the last rendered frame and repaint, e.g. because a subclass can now render it differently
+     */
+    void invalidate() {
+        this.state.updateAndGet(RenderState::nextVersion);
+        final Component currentComponent = this.component;
+        if (currentComponent != null) {
+            GuiHelper.runInEDT(currentComponent::repaint);
+        }
+    }
+
+    /**
+     * Get the source to sample for the current frame
+     * @param image The source image, ignored if there is a tiled source
+     * @param currentTiledSource The tiled source, may be {@code null}
+     * @param radiansPerPixel The angular size of a pixel of the image being mapped
+     * @return The level of the tiled source or of the mip pyramid that matches the angular size of a pixel
+     */
+    private PixelSource getPixelSource(BufferedImage image, TiledImageSource currentTiledSource, double radiansPerPixel) {
+        if (currentTiledSource != null) {
+            return currentTiledSource.getView(MipPyramid.getLevel(radiansPerPixel, currentTiledSource.getWidth(),
+                    currentTiledSource.getLevelCount()));
+        }
+        final MipPyramid pyramid = getSourcePyramid(image);
+        return pyramid.getLevel(pyramid.getLevel(radiansPerPixel));
+    }
+
+    /**
+     * Get the mip pyramid of the source image. Its levels have the same type as the offscreen image.
+     * The pyramid is only built the first time the image is painted.
+     * @param image The source image
+     * @return The pyramid for the image
+     */
+    MipPyramid getSourcePyramid(BufferedImage image) {
+        final SourcePyramid current = this.sourcePyramid.get();
+        if (current != null && current.isOf(image)) {
+            return current.getPyramid();
+        }
+        final MipPyramid prepared = this.preparedPyramids.get(image);
+        final MipPyramid pyramid = prepared != null ? prepared : SourcePyramid.build(image, getMipmapMemory());
+        this.sourcePyramid.set(new SourcePyramid(image, pyramid));
+        return pyramid;
+    }
+
+    private static long getMipmapMemory() {
+        return MIPMAP_MEMORY.get() * 1024L * 1024L;
+    }
+
+    @Override
+    public long estimatePreparedMemory(BufferedImage image) {
+        return MipPyramid.estimateMemoryUsage(image.getWidth(), image.getHeight(), getMipmapMemory())
+                + getConversionMemory(image);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This builds the mip pyramid of the image, so that its first frame does not have to wait for it.
+     * The pyramid is built outside of the map of prepared pyramids, so that building it does not block
+     * other images; if two threads prepare the same image, the first pyramid is kept.
+     */
+    @Override
+    public long prepare(BufferedImage image) {
+        MipPyramid pyramid = this.preparedPyramids.get(image);
+        if (pyramid == null) {
+            final MipPyramid built = SourcePyramid.build(image, getMipmapMemory());
+            pyramid = this.preparedPyramids.putIfAbsent(image, built);
+            if (pyramid == null) {
+                pyramid = built;
+            }
+        }
+        return pyramid.getMemoryUsage() + getConversionMemory(image);
+    }
+
+    /**
+     * Get the memory used by the copy of an image of another type than the offscreen image,
+     * which the first level of its pyramid is converted to
+     * @param image The source image
+     * @return The number of bytes of the copy, {@code 0} if the image is used as it is
+     */
+    private static long getConversionMemory(BufferedImage image) {
+        return image.getType() != IntRaster.IMAGE_TYPE ? 4L * image.getWidth() * image.getHeight() : 0;
+    }
+
+    @Override
+    public void discard(BufferedImage image) {
+        this.preparedPyramids.remove(image);
+    }
+
+    /**
+     * Get the memory used by the reduced levels of the mip pyramid of the current source image.
+     * This is bounded by the {@code geoimage.viewer.equirectangular.mipmap.memory} preference.
+     * @return The number of bytes used in addition to the source image
+     */
+    public long getMipMapMemoryUsage() {
+        final SourcePyramid current = this.sourcePyramid.get();
+        return current != null ? current.getPyramid().getMemoryUsage() : 0;
+    }
+
+    /**
+     * Get the tiled source that is painted instead of the image passed to {@link #paintImage}
+     * @return The tiled source, or {@code null} if the image passed to {@link #paintImage} is painted
+     */
+    public TiledImageSource getTiledSource() {
+        return this.tiledSource;
+    }
+
+    /**
+     * Set a tiled source to paint instead of the image passed to {@link #paintImage}.
+     * Only the tiles of the level that matches the viewport, and that are visible, are decoded.
+     * A tiled source is always mapped through the ray table, in the {@link MappingMode#RAY_TABLE} mode unless the
+     * {@link MappingMode#FAST_MATH} mode is set.
+     * @param tiledSource The tiled source, or {@code null} to paint the image passed to {@link #paintImage} again.
+     * The caller is responsible for closing it. It is dropped again if one of its tiles cannot be decoded.
+     */
+    public void setTiledSource(TiledImageSource tiledSource) {
+        this.tiledSource = tiledSource;
+        this.state.updateAndGet(RenderState::nextVersion);
+    }
+
+    /**
+     * Get the way the source image is sampled
+     * @return The current sampling quality
+     */
+    public SamplingQuality getSamplingQuality() {
+        return this.samplingQuality;
+    }
+
+    /**
+     * Set the way the source image is sampled in the {@link MappingMode#RAY_TABLE} and {@link MappingMode#FAST_MATH}
+     * modes
+     * @param samplingQuality The sampling quality to use for the following frames
+     */
+    public void setSamplingQuality(SamplingQuality samplingQuality) {
+        this.samplingQuality = Objects.requireNonNull(samplingQuality, "samplingQuality");
+        this.state.updateAndGet(RenderState::nextVersion);
+    }
+
+    /**
+     * Get the way the offscreen image is mapped from the source image
+     * @return The current mapping mode
+     */
+    public MappingMode getMappingMode() {
+        return this.mappingMode;
+    }
+
+    /**
+     * Set the way the offscreen image is mapped from the source image
+     * @param mappingMode The mapping mode to use for the following frames
+     */
+    public void setMappingMode(MappingMode mappingMode) {
+        this.mappingMode = Objects.requireNonNull(mappingMode, "mappingMode");
+        this.state.updateAndGet(RenderState::nextVersion);
+    }
+
+    /**
+     * Get the number of threads used to map the offscreen image
+     * @return The parallelism level
+     */
+    public int getParallelism() {
+        return getParallelMapper().getParallelism();
+    }
+
+    /**
+     * Set the number of threads used to map the offscreen image.
+     * Viewports smaller than {@value ParallelMapper#SERIAL_THRESHOLD} pixels are always mapped on the painting thread.
+     * @param parallelism The number of threads, {@code 1} to always map on the painting thread
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelMapper.set(new ParallelMapper(parallelism));
+    }
+
+    private ParallelMapper getParallelMapper() {
+        return ParallelMapper.getOrCreate(this.parallelMapper, PARALLELISM);
     }
 
     @Override
@@ -56,61 +463,127 @@ public class Equirectangular extends ComponentAdapter implements IImageViewer {
 
     @Override
     public Vector3D getRotation() {
-        return this.cameraPlane.getRotation();
+        return this.state.get().getRotation();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Resize events are coalesced: the first one is handled right away, later ones only once no other resize
+     * event has arrived for {@value #RESIZE_DELAY} ms. Until then, the last frame is scaled to the new size.
+     */
     @Override
     public void componentResized(ComponentEvent e) {
         final Component imgDisplay = e.getComponent();
-        if (e.getComponent().getWidth() > 0
-                && e.getComponent().getHeight() > 0) {
-            // FIXME: Do something so that the types of the images are the same between the offscreenImage and
-            // the image entry
-            final CameraPlane currentCameraPlane;
-            synchronized (this) {
-                currentCameraPlane = this.cameraPlane;
-            }
-            final BufferedImage temporaryOffscreenImage = new BufferedImage(imgDisplay.getWidth(), imgDisplay.getHeight(),
-                    BufferedImage.TYPE_4BYTE_ABGR);
-            //converting the current image entry of currentOffscreenImage into
-            //the same type as temporaryOffscreenImage and write the image onto the new bufferedimage
-            
-            //final BufferedImage convertedImg = new BufferedImage(bufImg.getWidth(), bufImg.getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
-            //convertedImg.getGraphics().drawImage(currentOffscreenImage, 0, 0, null);
-
-            Vector3D currentRotation = null;
-            if (currentCameraPlane != null) {
-                currentRotation = currentCameraPlane.getRotation();
-            }
-            final CameraPlane temporaryCameraPlane = new CameraPlane(imgDisplay.getWidth(), imgDisplay.getHeight());
-            if (currentRotation != null) {
-                temporaryCameraPlane.setRotation(currentRotation);
+        if (imgDisplay.getWidth() > 0 && imgDisplay.getHeight() > 0) {
+            if (this.state.get().getRayTable() == null) {
+                resize(imgDisplay);
+            } else {
+                GuiHelper.runInEDT(() -> {
+                    if (this.resizeTimer == null) {
+                        this.resizeTimer = new Timer(RESIZE_DELAY, event -> resize(this.pendingResize));
+                        this.resizeTimer.setRepeats(false);
+                    }
+                    this.pendingResize = imgDisplay;
+                    this.resizeTimer.restart();
+                });
             }
-            synchronized (this) {
-                this.cameraPlane = temporaryCameraPlane;
-                this.offscreenImage = temporaryOffscreenImage;
-            }
-            if (imgDisplay instanceof ImageDisplay) {
-                ((ImageDisplay) imgDisplay).updateVisibleRectangle();
-            }
-            GuiHelper.runInEDT(imgDisplay::revalidate);
         }
     }
 
+    /**
+     * Rebuild the camera plane and the buffers for the current size of the component
+     * @param imgDisplay The component the image is displayed in
+     */
+    private void resize(Component imgDisplay) {
+        final int width = imgDisplay.getWidth();
+        final int height = imgDisplay.getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        final RayTable currentRayTable = this.state.get().getRayTable();
+        if (currentRayTable != null && currentRayTable.getWidth() == width && currentRayTable.getHeight() == height) {
+            return;
+        }
+        final long allocations = this.offscreenPool.getAllocationCount() + this.previewPool.getAllocationCount();
+        // The source image is converted to the same type in getSourcePyramid, so pixels can be copied directly
+        final BufferedImage temporaryOffscreenImage = this.offscreenPool.get(width, height);
+        final int temporaryPreviewScale = Math.max(1, PROGRESSIVE_SCALE.get());
+        final IntRaster temporaryPreviewRaster = temporaryPreviewScale > 1 ? IntRaster.of(this.previewPool.get(
+                RayTable.ceilDiv(width, temporaryPreviewScale), RayTable.ceilDiv(height, temporaryPreviewScale))) : null;
+        final RenderMetrics currentMetrics = this.metrics;
+        if (currentMetrics != null) {
+            currentMetrics.recordBufferAllocations(this.offscreenPool.getAllocationCount()
+                    + this.previewPool.getAllocationCount() - allocations);
+        }
+        // The camera plane depends on the aspect ratio and the field of view, so it cannot be pooled like the buffers
+        final CameraPlane temporaryCameraPlane = new CameraPlane(width, height);
+        final RayTable temporaryRayTable = new RayTable(temporaryCameraPlane, width, height);
+        // Keep any rotation that was made concurrently
+        this.state.updateAndGet(current -> current.withViewport(temporaryCameraPlane, temporaryRayTable,
+                temporaryOffscreenImage, temporaryPreviewRaster, temporaryPreviewScale));
+        this.component = imgDisplay;
+        if (imgDisplay instanceof ImageDisplay) {
+            ((ImageDisplay) imgDisplay).updateVisibleRectangle();
+        }
+        GuiHelper.runInEDT(imgDisplay::revalidate);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * While dragging, the image is rendered at a reduced resolution (see the
+     * {@code geoimage.viewer.equirectangular.progressive.scale} preference) unless the {@link MappingMode#CAMERA_PLANE} mode is set.
+     * The drag has ended once no drag event has arrived for {@value #DRAG_END_DELAY} ms, and the image is then
+     * repainted at full resolution.
+     */
     @Override
     public void mouseDragged(final Point from, final Point to, ImageDisplay.VisRect currentVisibleRect) {
         if (from != null && to != null) {
-            this.cameraPlane.setRotationFromDelta(from, to);
+            this.dragging = true;
+            GuiHelper.runInEDT(() -> {
+                if (this.dragTimer == null) {
+                    this.dragTimer = new Timer(DRAG_END_DELAY, event -> endDrag());
+                    this.dragTimer.setRepeats(false);
+                }
+                this.dragTimer.restart();
+            });
+            this.state.updateAndGet(current -> current.withRotationFromDelta(from, to));
+            final RenderMetrics currentMetrics = this.metrics;
+            if (currentMetrics != null && this.dragPending.getAndSet(true)) {
+                currentMetrics.recordDroppedFrame();
+            }
+        }
+    }
+
+    /**
+     * Repaint the image at full resolution after a drag
+     */
+    private void endDrag() {
+        this.dragging = false;
+        final Component currentComponent = this.component;
+        if (currentComponent != null) {
+            currentComponent.repaint();
         }
     }
 
+    @Override
+    public RenderMetrics getRenderMetrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void setRenderMetrics(RenderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public void checkAndModifyVisibleRectSize(Image image, ImageDisplay.VisRect visibleRect) {
-        IImageViewer.super.checkAndModifyVisibleRectSize(this.offscreenImage, visibleRect);
+        IImageViewer.super.checkAndModifyVisibleRectSize(this.state.get().getOffscreenImage(), visibleRect);
     }
 
     @Override
     public Image getMaxImageSize(ImageDisplay imageDisplay, Image image) {
-        return this.offscreenImage;
+        return this.state.get().getOffscreenImage();
     }
 }
@@ -0,0 +1,62 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+/**
+ * Polynomial approximations of {@link Math#atan2} and {@link Math#asin}, for mapping screen pixels.
+ * <p>
+ * The arc tangent is reduced to [0, 1] by octant symmetry and approximated there by an odd minimax polynomial of
+ * degree 11. The maximum error of both functions is {@link #MAXIMUM_ERROR}, which is about 1/200 of a pixel of a
+ * 16384 pixel wide equirectangular source (2&pi;/16384 &asymp; 3.8e-4 radians). {@code FastTrigTest} checks the
+ * bound over the whole sphere.
+ */
+final class FastTrig {
+    /** The maximum absolute error of {@link #atan2} and {@link #asin}, in radians */
+    static final double MAXIMUM_ERROR = 2e-6;
+
+    private static final double HALF_PI = Math.PI / 2;
+    private static final double A1 = 0.99997726;
+    private static final double A3 = -0.33262347;
+    private static final double A5 = 0.19354346;
+    private static final double A7 = -0.11643287;
+    private static final double A9 = 0.05265332;
+    private static final double A11 = -0.01172120;
+
+    private FastTrig() {
+        // Hide the constructor
+    }
+
+    /**
+     * Approximate {@link Math#atan2}
+     * @param y The ordinate
+     * @param x The abscissa
+     * @return The angle of (x, y), from -&pi; to &pi;, or {@code 0} for (0, 0)
+     */
+    static double atan2(double y, double x) {
+        final double absX = Math.abs(x);
+        final double absY = Math.abs(y);
+        final double max = Math.max(absX, absY);
+        if (max == 0) {
+            return 0;
+        }
+        final double a = Math.min(absX, absY) / max;
+        final double s = a * a;
+        double angle = a * (A1 + s * (A3 + s * (A5 + s * (A7 + s * (A9 + s * A11)))));
+        if (absY > absX) {
+            angle = HALF_PI - angle;
+        }
+        if (x < 0) {
+            angle = Math.PI - angle;
+        }
+        return y < 0 ? -angle : angle;
+    }
+
+    /**
+     * Approximate {@link Math#asin}
+     * @param x The sine, clamped to [-1, 1]
+     * @return The angle, from -&pi;/2 to &pi;/2
+     */
+    static double asin(double x) {
+        final double clamped = Math.max(-1, Math.min(1, x));
+        return atan2(clamped, Math.sqrt((1 - clamped) * (1 + clamped)));
+    }
+}
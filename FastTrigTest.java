@@ -0,0 +1,148 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.util.Random;
+
+/**
+ * Checks that the approximations of {@link FastTrig} stay within {@link FastTrig#MAXIMUM_ERROR} over the whole
+ * sphere, both on their own and through {@link FastSphericalKernel}.
+ * <p>
+ * Run the {@link #main} method; it exits with status 1 if the bound does not hold.
+ */
+public final class FastTrigTest {
+    /** The rounding error of storing a coordinate from 0 to 1 as a float, converted to radians around the equator */
+    private static final double FLOAT_ERROR = 2 * Math.PI * Math.ulp(1f);
+    /** The number of steps of the yaw and pitch grid over the sphere */
+    private static final int STEPS = 2000;
+    /** The number of samples of the one dimensional checks */
+    private static final int SAMPLES = 1_000_000;
+
+    private FastTrigTest() {
+        // Hide the constructor
+    }
+
+    /**
+     * Run the checks
+     * @param args Ignored
+     */
+    public static void main(String[] args) {
+        boolean passed = checkAtan2();
+        passed &= checkAsin();
+        passed &= checkSphere();
+        passed &= checkKernel();
+        System.out.println(passed ? "All checks passed" : "Some checks FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Check atan2 on a fine grid of angles around the circle, at several radii, and on the axes
+     * @return {@code true} if the bound holds
+     */
+    private static boolean checkAtan2() {
+        double maximum = 0;
+        for (int i = 0; i <= SAMPLES; i++) {
+            final double angle = -Math.PI + 2 * Math.PI * i / SAMPLES;
+            for (double radius : new double[] {1e-6, 1, 1e6}) {
+                final double x = radius * Math.cos(angle);
+                final double y = radius * Math.sin(angle);
+                maximum = Math.max(maximum, angleDifference(FastTrig.atan2(y, x), Math.atan2(y, x)));
+            }
+        }
+        for (double[] axis : new double[][] {{0, 1}, {1, 0}, {0, -1}, {-1, 0}, {1, 1}, {-1, -1}}) {
+            maximum = Math.max(maximum, angleDifference(FastTrig.atan2(axis[1], axis[0]), Math.atan2(axis[1], axis[0])));
+        }
+        return report("atan2", maximum, FastTrig.MAXIMUM_ERROR);
+    }
+
+    /**
+     * Check asin from -1 to 1, including the ends, where it is steepest
+     * @return {@code true} if the bound holds
+     */
+    private static boolean checkAsin() {
+        double maximum = 0;
+        for (int i = 0; i <= SAMPLES; i++) {
+            final double x = -1 + 2.0 * i / SAMPLES;
+            maximum = Math.max(maximum, Math.abs(FastTrig.asin(x) - Math.asin(x)));
+        }
+        for (double x : new double[] {-1, Math.nextUp(-1.0), 0, Math.nextDown(1.0), 1}) {
+            maximum = Math.max(maximum, Math.abs(FastTrig.asin(x) - Math.asin(x)));
+        }
+        return report("asin", maximum, FastTrig.MAXIMUM_ERROR);
+    }
+
+    /**
+     * Check the yaw and pitch of directions on a yaw and pitch grid over the whole sphere, poles included
+     * @return {@code true} if the bound holds
+     */
+    private static boolean checkSphere() {
+        double maximum = 0;
+        for (int i = 0; i <= STEPS; i++) {
+            final double pitch = -Math.PI / 2 + Math.PI * i / STEPS;
+            for (int j = 0; j < 2 * STEPS; j++) {
+                final double yaw = -Math.PI + Math.PI * j / STEPS;
+                final double x = Math.cos(pitch) * Math.sin(yaw);
+                final double y = Math.sin(pitch);
+                final double z = Math.cos(pitch) * Math.cos(yaw);
+                // The yaw error only moves a point by its distance to the axis
+                final double yawError = angleDifference(FastTrig.atan2(x, z), Math.atan2(x, z)) * Math.cos(pitch);
+                final double pitchError = Math.abs(FastTrig.asin(y) - Math.asin(y));
+                maximum = Math.max(maximum, Math.max(yawError, pitchError));
+            }
+        }
+        return report("sphere grid", maximum, FastTrig.MAXIMUM_ERROR);
+    }
+
+    /**
+     * Check the kernel against the exact one for random rays and rotations
+     * @return {@code true} if the bound holds, with the rounding of the float coordinates
+     */
+    private static boolean checkKernel() {
+        final Random random = new Random(17);
+        final int count = 100_000;
+        final float[] rayX = new float[count];
+        final float[] rayY = new float[count];
+        final float[] rayZ = new float[count];
+        for (int i = 0; i < count; i++) {
+            final double x = random.nextGaussian();
+            final double y = random.nextGaussian();
+            final double z = random.nextGaussian();
+            final double length = Math.sqrt(x * x + y * y + z * z);
+            rayX[i] = (float) (x / length);
+            rayY[i] = (float) (y / length);
+            rayZ[i] = (float) (z / length);
+        }
+        final float[] exactU = new float[count];
+        final float[] exactV = new float[count];
+        final float[] fastU = new float[count];
+        final float[] fastV = new float[count];
+        double maximum = 0;
+        for (int rotation = 0; rotation < 20; rotation++) {
+            final CameraRotation r = new CameraRotation(2 * Math.PI * random.nextDouble(), Math.PI * (random.nextDouble() - 0.5));
+            new ScalarSphericalKernel().toUV(rayX, rayY, rayZ, 0, count, r, exactU, exactV);
+            new FastSphericalKernel().toUV(rayX, rayY, rayZ, 0, count, r, fastU, fastV);
+            for (int i = 0; i < count; i++) {
+                final double uError = Math.abs(fastU[i] - exactU[i]);
+                // Around the seam, u = 0 and u = 1 are the same point
+                final double yawError = 2 * Math.PI * Math.min(uError, 1 - uError);
+                final double pitchError = Math.PI * Math.abs(fastV[i] - exactV[i]);
+                maximum = Math.max(maximum, Math.max(yawError, pitchError));
+            }
+        }
+        return report("kernel", maximum, FastTrig.MAXIMUM_ERROR + 2 * FLOAT_ERROR);
+    }
+
+    private static double angleDifference(double a, double b) {
+        final double difference = Math.abs(a - b);
+        // -pi and pi are the same angle
+        return Math.min(difference, 2 * Math.PI - difference);
+    }
+
+    private static boolean report(String name, double maximum, double bound) {
+        final boolean passed = maximum <= bound;
+        System.out.println(String.format("%-12s maximum error %.3e rad, bound %.3e rad: %s", name, maximum, bound,
+                passed ? "passed" : "FAILED"));
+        return passed;
+    }
+}
@@ -0,0 +1,213 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openstreetmap.josm.data.imagery.street_level.Projections;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.DoubleProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.gui.util.imagery.Vector3D;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * A viewer for raw fisheye and dual fisheye frames, without stitching them first.
+ * <p>
+ * Frames that are at least 1.5 times as wide as they are high are shown as dual fisheye frames,
+ * see {@link FisheyeLens}. The position in the frame of every direction is computed once per lens configuration,
+ * and stored in a cube map. A frame then only takes one lookup in that table per pixel, along the rotated view ray
+ * of the pixel, followed by sampling the frame. The lookup interpolates between the entries of the table, so zooming
+ * in does not show its cells.
+ * <p>
+ * Cameras tag fisheye frames as perspective images, so the viewer is picked by {@link #isFisheyeFrame} instead of
+ * by projection, see {@link ImageProjectionRegistry#registerDetectedViewer}. That is only done once the
+ * {@code geoimage.viewer.fisheye.detect} preference is set.
+ */
+public class Fisheye extends Equirectangular {
+    /** The field of view of each lens, in degrees */
+    private static final DoubleProperty FIELD_OF_VIEW = new DoubleProperty("geoimage.viewer.fisheye.fov", 190);
+    /** The width and height of each face of the lens table */
+    private static final IntegerProperty TABLE_SIZE = new IntegerProperty("geoimage.viewer.fisheye.table.size", 1024);
+    /**
+     * Whether perspective images that look like fisheye frames are shown with this viewer. This is off by default,
+     * since the pixels alone cannot tell every fisheye frame from every perspective image.
+     */
+    private static final BooleanProperty DETECT = new BooleanProperty("geoimage.viewer.fisheye.detect", false);
+    /** The largest value of each color channel that counts as black outside of the lens circles */
+    private static final int BLACK = 16;
+    /** The radii, relative to the radius of a lens circle, at which it must be black along the diagonals */
+    private static final double[] OUTSIDE_RADII = {1.1, 1.2, 1.3};
+    /** The radius, relative to the radius of a lens circle, at which it must not be black in any direction */
+    private static final double INSIDE_RADIUS = 0.9;
+    /** The number of directions in which the inside of the edge of a lens circle is checked */
+    private static final int EDGE_DIRECTIONS = 16;
+
+    /** The table for the last lens configuration */
+    private final AtomicReference<LensTable> lensTable = new AtomicReference<>();
+
+    /**
+     * A lens configuration and its table
+     */
+    private static final class LensTable {
+        private final FisheyeLens lens;
+        private final int size;
+        private final CubeFaces table;
+        /** The largest step between table entries that is interpolated, see {@link CubeFaces#samplePosition} */
+        private final int maximumStep;
+
+        LensTable(FisheyeLens lens, int size) {
+            this.lens = lens;
+            this.size = size;
+            this.maximumStep = lens.getMaximumStep(size);
+            final long start = System.nanoTime();
+            this.table = CubeFaces.of(size, lens::project);
+            Logging.debug("Built the lens table for {0} with {1}x{1} faces in {2} ms", lens, size,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This is empty: the image metadata does not tell fisheye frames apart, see {@link #isFisheyeFrame}.
+     */
+    @Override
+    public Set<Projections> getSupportedProjections() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Check if an image should be shown as a raw fisheye or dual fisheye frame. This is only done if the
+     * {@code geoimage.viewer.fisheye.detect} preference is set, see {@link #looksLikeFisheyeFrame}.
+     * @param image The image, e.g. one tagged as a perspective image
+     * @return {@code true} if the image should be shown with this viewer
+     */
+    static boolean isFisheyeFrame(BufferedImage image) {
+        return DETECT.get() && looksLikeFisheyeFrame(image);
+    }
+
+    /**
+     * Check if an image looks like a raw fisheye or dual fisheye frame: each lens circle has a sharp edge, black
+     * just outside of it along the diagonals and not black just inside of it all around, and its center is not
+     * black either. Dark corners alone, as in vignetted, letterboxed or night photos, are not enough.
+     * @param image The image
+     * @return {@code true} if the image has the lens circles of a fisheye frame
+     */
+    static boolean looksLikeFisheyeFrame(BufferedImage image) {
+        if (image.getWidth() < 16 || image.getHeight() < 16) {
+            return false;
+        }
+        final boolean dual = image.getWidth() >= 1.5 * image.getHeight();
+        final int circles = dual ? 2 : 1;
+        final double circleWidth = image.getWidth() / (double) circles;
+        final double radius = Math.min(circleWidth, image.getHeight()) / 2;
+        final double centerY = image.getHeight() / 2.0;
+        for (int circle = 0; circle < circles; circle++) {
+            final double centerX = (circle + 0.5) * circleWidth;
+            if (isBlack(image.getRGB((int) centerX, (int) centerY))) {
+                return false;
+            }
+            for (int direction = 0; direction < EDGE_DIRECTIONS; direction++) {
+                final double angle = 2 * Math.PI * direction / EDGE_DIRECTIONS;
+                if (isBlack(image.getRGB((int) (centerX + INSIDE_RADIUS * radius * Math.cos(angle)),
+                        (int) (centerY + INSIDE_RADIUS * radius * Math.sin(angle))))) {
+                    return false;
+                }
+            }
+            for (double outside : OUTSIDE_RADII) {
+                final double offset = outside * radius * Math.sqrt(0.5);
+                for (int corner = 0; corner < 4; corner++) {
+                    final double x = (corner & 1) == 0 ? centerX - offset : centerX + offset;
+                    final double y = (corner & 2) == 0 ? centerY - offset : centerY + offset;
+                    if (!isBlack(image.getRGB((int) x, (int) y))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlack(int argb) {
+        return (argb >> 16 & 0xFF) <= BLACK && (argb >> 8 & 0xFF) <= BLACK && (argb & 0xFF) <= BLACK;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * {@link MappingMode#CAMERA_PLANE} maps the frame as an equirectangular image, so it falls back to
+     * {@link MappingMode#RAY_TABLE}.
+     */
+    @Override
+    public void setMappingMode(MappingMode mappingMode) {
+        if (mappingMode == MappingMode.CAMERA_PLANE) {
+            Logging.debug("Fisheye frames cannot be mapped with the camera plane, using the ray table instead");
+            super.setMappingMode(MappingMode.RAY_TABLE);
+        } else {
+            super.setMappingMode(mappingMode);
+        }
+    }
+
+    @Override
+    public void paintImage(Graphics g, BufferedImage image, Rectangle target, Rectangle visibleRect) {
+        // Build the table before the frame is split into bands, so that only one thread builds it
+        final TiledImageSource currentTiledSource = getTiledSource();
+        if (currentTiledSource != null) {
+            getLensTable(currentTiledSource.getWidth(), currentTiledSource.getHeight());
+        } else {
+            getLensTable(image.getWidth(), image.getHeight());
+        }
+        super.paintImage(g, image, target, visibleRect);
+    }
+
+    @Override
+    void mapBand(PixelSource source, RayTable currentRayTable, IntRaster target, Rectangle band, Vector3D rotation,
+            int scale, SamplingQuality quality) {
+        final LensTable lensTable = getLensTable(source.getWidth(), source.getHeight());
+        final CubeFaces table = lensTable.table;
+        final CameraRotation r = CameraRotation.of(rotation);
+        final Rectangle clipped = band.intersection(new Rectangle(0, 0,
+                Math.min(RayTable.ceilDiv(currentRayTable.getWidth(), scale), target.getWidth()),
+                Math.min(RayTable.ceilDiv(currentRayTable.getHeight(), scale), target.getHeight())));
+        final float[] rayX = currentRayTable.getRayX();
+        final float[] rayY = currentRayTable.getRayY();
+        final float[] rayZ = currentRayTable.getRayZ();
+        final int[] targetData = target.getData();
+        for (int y = clipped.y; y < clipped.y + clipped.height; y++) {
+            final int targetRow = target.getOffset() + y * target.getScanlineStride();
+            for (int x = clipped.x; x < clipped.x + clipped.width; x++) {
+                final int index = y * scale * currentRayTable.getWidth() + x * scale;
+                final double rx = rayX[index];
+                final double ry = rayY[index];
+                final double rz = rayZ[index];
+                final int position = table.samplePosition(r.m00 * rx + r.m01 * ry + r.m02 * rz, r.m11 * ry + r.m12 * rz,
+                        r.m20 * rx + r.m21 * ry + r.m22 * rz, lensTable.maximumStep);
+                targetData[targetRow + x] = position == FisheyeLens.OUTSIDE ? 0xFF000000
+                        : source.sample(FisheyeLens.getU(position), FisheyeLens.getV(position), quality);
+            }
+        }
+    }
+
+    /**
+     * Get the table for the lens configuration of a frame, building it if the configuration has changed
+     * @param width The width of the frame
+     * @param height The height of the frame
+     * @return The lens table
+     */
+    private LensTable getLensTable(int width, int height) {
+        final FisheyeLens lens = new FisheyeLens(width >= 1.5 * height, FIELD_OF_VIEW.get());
+        final int size = Math.max(16, TABLE_SIZE.get());
+        final LensTable current = this.lensTable.get();
+        if (current != null && current.lens.equals(lens) && current.size == size) {
+            return current;
+        }
+        final LensTable built = new LensTable(lens, size);
+        this.lensTable.compareAndSet(current, built);
+        return this.lensTable.get();
+    }
+}
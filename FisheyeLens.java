@@ -0,0 +1,117 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.util.Objects;
+
+/**
+ * The lens configuration of a raw fisheye frame, with the equidistant fisheye model (the distance from the center
+ * of a lens circle is proportional to the angle from the lens axis).
+ * <p>
+ * A single fisheye frame has one lens circle that fills the frame and looks forward. A dual fisheye frame has two
+ * lens circles side by side: the left one looks forward, the right one looks backward.
+ */
+final class FisheyeLens {
+    /** The value {@link #project} returns for directions that no lens sees */
+    static final int OUTSIDE = -1;
+    /** The largest packed coordinate, so that {@link #OUTSIDE} is never a valid packed position */
+    private static final int MAXIMUM_COORDINATE = 0xFFFE;
+
+    private final boolean dual;
+    private final double fieldOfView;
+
+    /**
+     * Create a new lens configuration
+     * @param dual {@code true} for two lens circles side by side, {@code false} for one
+     * @param fieldOfView The field of view of each lens, in degrees
+     */
+    FisheyeLens(boolean dual, double fieldOfView) {
+        this.dual = dual;
+        this.fieldOfView = fieldOfView;
+    }
+
+    /**
+     * Find the position in the frame that shows a direction
+     * @param x The x component of the normalized direction, to the right
+     * @param y The y component of the direction, downwards
+     * @param z The z component of the direction, forward
+     * @return The position, packed as {@code u << 16 | v} with u and v from 0 to {@value #MAXIMUM_COORDINATE} across
+     * the frame, or {@link #OUTSIDE} if no lens sees the direction
+     */
+    int project(double x, double y, double z) {
+        final double halfFieldOfView = Math.toRadians(this.fieldOfView) / 2;
+        // The backward lens is mirrored around the vertical axis
+        final boolean backward = this.dual && z < 0;
+        final double right = backward ? -x : x;
+        final double forward = backward ? -z : z;
+        final double sideways = Math.sqrt(right * right + y * y);
+        final double angle = Math.atan2(sideways, forward);
+        if (angle > halfFieldOfView) {
+            return OUTSIDE;
+        }
+        // The distance from the circle center, from 0 to 1 at the edge of the field of view
+        final double radius = sideways > 0 ? angle / halfFieldOfView / sideways : 0;
+        final double circleWidth = this.dual ? 0.5 : 1;
+        final double centerU = this.dual ? (backward ? 0.75 : 0.25) : 0.5;
+        final double u = centerU + right * radius * circleWidth / 2;
+        final double v = 0.5 + y * radius / 2;
+        return pack(u) << 16 | pack(v);
+    }
+
+    private static int pack(double coordinate) {
+        return (int) Math.round(Math.max(0, Math.min(1, coordinate)) * MAXIMUM_COORDINATE);
+    }
+
+    /**
+     * Get the horizontal position of a packed position
+     * @param packed The packed position, not {@link #OUTSIDE}
+     * @return The horizontal position, from 0 to 1 across the frame
+     */
+    static double getU(int packed) {
+        return (packed >>> 16) / (double) MAXIMUM_COORDINATE;
+    }
+
+    /**
+     * Get the vertical position of a packed position
+     * @param packed The packed position, not {@link #OUTSIDE}
+     * @return The vertical position, from 0 to 1 down the frame
+     */
+    static double getV(int packed) {
+        return (packed & 0xFFFF) / (double) MAXIMUM_COORDINATE;
+    }
+
+    /**
+     * Get the largest change of a packed coordinate between adjacent entries of a cube map table of this lens,
+     * within one lens circle. Larger changes are edges between the lens circles.
+     * @param tableSize The width and height of each face of the table
+     * @return The change, with a margin for diagonal neighbors
+     */
+    int getMaximumStep(int tableSize) {
+        // Adjacent entries are at most 2 / size radians apart, and a coordinate changes by at most half of the
+        // frame per half field of view
+        final double radiansPerEntry = 2.0 / tableSize;
+        final double coordinatePerRadian = 0.5 / (Math.toRadians(this.fieldOfView) / 2);
+        return (int) Math.ceil(2 * radiansPerEntry * coordinatePerRadian * MAXIMUM_COORDINATE);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final FisheyeLens other = (FisheyeLens) obj;
+        return this.dual == other.dual && Double.compare(this.fieldOfView, other.fieldOfView) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.dual, this.fieldOfView);
+    }
+
+    @Override
+    public String toString() {
+        return (this.dual ? "dual fisheye, " : "fisheye, ") + this.fieldOfView + " degrees";
+    }
+}
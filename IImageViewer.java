@@ -63,6 +63,56 @@ public interface IImageViewer extends ComponentListener {
         currentVisibleRect.y += from.y - to.y;
     }
 
+    /**
+     * Estimate the memory {@link #prepare} will keep for an image, without preparing it.
+     * {@link ImagePrefetcher} reserves this before it lets the viewer prepare the image.
+     * @param image The image
+     * @return The number of bytes {@link #prepare} is expected to return for the image
+     * @since xxx
+     */
+    default long estimatePreparedMemory(BufferedImage image) {
+        return 0;
+    }
+
+    /**
+     * Prepare an image that is likely to be painted soon, e.g. by building the caches used to paint it.
+     * This is called on a background thread by {@link ImagePrefetcher}.
+     * @param image The image
+     * @return The number of bytes the viewer keeps for the image until {@link #discard} is called
+     * @since xxx
+     */
+    default long prepare(BufferedImage image) {
+        return 0;
+    }
+
+    /**
+     * Forget what {@link #prepare} kept for an image
+     * @param image The image that is no longer likely to be painted
+     * @since xxx
+     */
+    default void discard(BufferedImage image) {
+        // Nothing is prepared by default
+    }
+
+    /**
+     * Get the metrics the viewer records for every frame
+     * @return The metrics, or {@code null} if the viewer does not record any
+     * @since xxx
+     */
+    default RenderMetrics getRenderMetrics() {
+        return null;
+    }
+
+    /**
+     * Start or stop recording metrics for every frame. Viewers that support metrics start recording
+     * on their own when {@link RenderMetrics#ENABLED} is set.
+     * @param metrics The metrics to record to, or {@code null} to stop recording
+     * @since xxx
+     */
+    default void setRenderMetrics(RenderMetrics metrics) {
+        // Viewers do not record metrics by default
+    }
+
     /**
      * Check and modify the visible rect size to appropriate dimensions
      * @param visibleRect the visible rectangle to update
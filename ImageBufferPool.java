@@ -0,0 +1,47 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A pool holding one image buffer that is reused for every size that fits in it.
+ * <p>
+ * Smaller sizes are served as {@link BufferedImage#getSubimage sub images} sharing the pooled raster, so
+ * shrinking or slightly growing a window does not allocate. The buffer is only reallocated when a size does
+ * not fit anymore, or when it would waste more than three quarters of the pooled buffer.
+ */
+final class ImageBufferPool {
+    /** Guarded by {@code this} */
+    private BufferedImage pooled;
+    private long allocations;
+
+    /**
+     * Get an image of a size. Images returned earlier may share the same pixels.
+     * @param width The width of the image
+     * @param height The height of the image
+     * @return An image of type {@link IntRaster#IMAGE_TYPE}, with undefined contents
+     */
+    synchronized BufferedImage get(int width, int height) {
+        if (this.pooled == null || width > this.pooled.getWidth() || height > this.pooled.getHeight()
+                || 4L * width * height < (long) this.pooled.getWidth() * this.pooled.getHeight()) {
+            final boolean grow = this.pooled != null
+                    && 4L * width * height >= (long) this.pooled.getWidth() * this.pooled.getHeight();
+            // When growing, keep the larger dimension so that alternating between wide and tall sizes does not reallocate
+            this.pooled = IntRaster.createImage(grow ? Math.max(width, this.pooled.getWidth()) : width,
+                    grow ? Math.max(height, this.pooled.getHeight()) : height);
+            this.allocations++;
+        }
+        if (width == this.pooled.getWidth() && height == this.pooled.getHeight()) {
+            return this.pooled;
+        }
+        return this.pooled.getSubimage(0, 0, width, height);
+    }
+
+    /**
+     * Get the number of buffers that have been allocated
+     * @return The number of allocations since the pool was created
+     */
+    synchronized long getAllocationCount() {
+        return this.allocations;
+    }
+}
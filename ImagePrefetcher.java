@@ -0,0 +1,277 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.openstreetmap.josm.data.imagery.street_level.IImageEntry;
+import org.openstreetmap.josm.data.imagery.street_level.Projections;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Decodes the images around the current image of a sequence in the background, and lets their viewers
+ * {@link IImageViewer#prepare prepare} them, so that stepping to the next or previous image does not have to wait.
+ * <p>
+ * The images within {@code geoimage.viewer.prefetch.count} steps of the current image are kept, nearest first,
+ * as long as they fit in {@code geoimage.viewer.prefetch.memory} MiB. Images that fall out of that window when the
+ * user jumps away are cancelled or discarded. At most {@code geoimage.viewer.prefetch.threads} images are decoded
+ * at the same time, and since only the images in the window are ever scheduled, the queue is bounded by the window.
+ * @since xxx
+ */
+public final class ImagePrefetcher implements AutoCloseable {
+    /** The number of images before and after the current image that are prefetched */
+    private static final IntegerProperty COUNT = new IntegerProperty("geoimage.viewer.prefetch.count", 2);
+    /** The maximum memory in MiB used by prefetched images and what their viewers prepared for them */
+    private static final IntegerProperty MEMORY = new IntegerProperty("geoimage.viewer.prefetch.memory", 512);
+    /** The number of images that are decoded at the same time */
+    private static final IntegerProperty THREADS = new IntegerProperty("geoimage.viewer.prefetch.threads", 1);
+
+    private final Function<Projections, IImageViewer> viewers;
+    private final ThreadPoolExecutor executor;
+    /** The images in the current window, by entry */
+    private final Map<IImageEntry<?>, Prefetched> prefetched = new ConcurrentHashMap<>();
+    private final AtomicLong memoryUsage = new AtomicLong();
+    private final long maximumMemory;
+
+    /**
+     * Create a new prefetcher
+     * @param viewers The viewers to prepare the images with, by projection, e.g. the
+     * {@link ImageProjectionRegistry.ViewerCache#getViewer ViewerCache} of the display. This is only called from
+     * {@link #prefetch}, so it does not need to be thread safe.
+     */
+    public ImagePrefetcher(Function<Projections, IImageViewer> viewers) {
+        this.viewers = Objects.requireNonNull(viewers, "viewers");
+        final int threads = Math.max(1, THREADS.get());
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                Utils.newThreadFactory("geoimage-prefetch-%d", Thread.MIN_PRIORITY));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.maximumMemory = Math.max(0, MEMORY.get()) * 1024L * 1024L;
+    }
+
+    /**
+     * Move the window of prefetched images. Images outside of the new window are cancelled or discarded,
+     * and the images in it that are not prefetched yet are scheduled, nearest first.
+     * @param entries The sequence of images
+     * @param current The index of the image that is shown now
+     * @param target The size to read the images at, see {@link IImageEntry#read}
+     */
+    public synchronized void prefetch(List<? extends IImageEntry<?>> entries, int current, Dimension target) {
+        final int count = Math.max(0, COUNT.get());
+        final Set<IImageEntry<?>> window = new HashSet<>();
+        for (int distance = 0; distance <= count; distance++) {
+            addToWindow(window, entries, current + distance);
+            addToWindow(window, entries, current - distance);
+        }
+        final List<IImageEntry<?>> outside = new ArrayList<>();
+        for (IImageEntry<?> entry : this.prefetched.keySet()) {
+            if (!window.contains(entry)) {
+                outside.add(entry);
+            }
+        }
+        outside.forEach(this::remove);
+        if (!outside.isEmpty()) {
+            // Drop the cancelled tasks from the queue
+            this.executor.purge();
+        }
+        // The current image is only kept if it was prefetched, the display reads it itself
+        for (int distance = 1; distance <= count; distance++) {
+            schedule(entries, current + distance, target);
+            schedule(entries, current - distance, target);
+        }
+    }
+
+    private static void addToWindow(Set<IImageEntry<?>> window, List<? extends IImageEntry<?>> entries,
+            int index) {
+        if (index >= 0 && index < entries.size()) {
+            window.add(entries.get(index));
+        }
+    }
+
+    private void schedule(List<? extends IImageEntry<?>> entries, int index, Dimension target) {
+        if (index < 0 || index >= entries.size() || this.executor.isShutdown()) {
+            return;
+        }
+        final IImageEntry<?> entry = entries.get(index);
+        if (this.prefetched.containsKey(entry)) {
+            return;
+        }
+        final Prefetched item = new Prefetched(this.viewers.apply(entry.getProjectionType()));
+        this.prefetched.put(entry, item);
+        item.future = this.executor.submit(() -> load(entry, item, new Dimension(target)));
+    }
+
+    /**
+     * Decode an image and let its viewer prepare it, within the memory budget
+     * @param entry The image to decode
+     * @param item Where to account the memory used for the image
+     * @param target The size to read the image at
+     * @return The decoded image, or {@code null} if it did not fit in the memory budget or was cancelled
+     * @throws IOException if the image cannot be read
+     */
+    private BufferedImage load(IImageEntry<?> entry, Prefetched item, Dimension target) throws IOException {
+        final BufferedImage image = entry.read(target);
+        if (image == null || Thread.currentThread().isInterrupted() || !reserve(item, getSize(image))) {
+            return null;
+        }
+        item.image = image;
+        // Reserve what the viewer will keep before it builds it, so that a full budget does not build anything
+        final long estimated = item.viewer.estimatePreparedMemory(image);
+        if (reserve(item, estimated)) {
+            final long prepared = item.viewer.prepare(image);
+            if (!reserve(item, prepared - estimated)) {
+                item.viewer.discard(image);
+                release(item, estimated);
+            }
+        }
+        Logging.trace("Prefetched {0}, {1} bytes of {2} in use", entry.getFile(), this.memoryUsage.get(),
+                this.maximumMemory);
+        return image;
+    }
+
+    /**
+     * Account memory for an image
+     * @param item The image
+     * @param bytes The number of bytes to add
+     * @return {@code true} if the memory was reserved, {@code false} if it does not fit or the image was removed
+     */
+    private boolean reserve(Prefetched item, long bytes) {
+        long used;
+        do {
+            used = this.memoryUsage.get();
+            if (used + bytes > this.maximumMemory) {
+                return false;
+            }
+        } while (!this.memoryUsage.compareAndSet(used, used + bytes));
+        if (!item.add(bytes)) {
+            this.memoryUsage.addAndGet(-bytes);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Give back memory reserved for an image that is still in the window
+     * @param item The image
+     * @param bytes The number of bytes to give back
+     */
+    private void release(Prefetched item, long bytes) {
+        if (item.add(-bytes)) {
+            this.memoryUsage.addAndGet(-bytes);
+        }
+    }
+
+    private void remove(IImageEntry<?> entry) {
+        final Prefetched item = this.prefetched.remove(entry);
+        if (item == null) {
+            return;
+        }
+        if (item.future != null) {
+            item.future.cancel(true);
+        }
+        this.memoryUsage.addAndGet(-item.release());
+        final BufferedImage image = item.image;
+        if (image != null) {
+            item.viewer.discard(image);
+        }
+    }
+
+    private static long getSize(BufferedImage image) {
+        final DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Get a prefetched image. If it is still being decoded, this waits for it.
+     * @param entry The image to get
+     * @return The decoded image, or {@code null} if it was not prefetched, or could not be
+     */
+    public BufferedImage getImage(IImageEntry<?> entry) {
+        final Prefetched item = this.prefetched.get(entry);
+        if (item == null || item.future == null) {
+            return null;
+        }
+        try {
+            return item.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException e) {
+            Logging.trace(e);
+        } catch (ExecutionException e) {
+            Logging.debug(e);
+        }
+        return null;
+    }
+
+    /**
+     * Get the memory used by prefetched images and what their viewers prepared for them
+     * @return The number of bytes
+     */
+    public long getMemoryUsage() {
+        return this.memoryUsage.get();
+    }
+
+    /**
+     * Cancel all prefetching and discard all prefetched images, e.g. when the sequence is closed
+     */
+    public synchronized void clear() {
+        new ArrayList<>(this.prefetched.keySet()).forEach(this::remove);
+        this.executor.purge();
+    }
+
+    @Override
+    public void close() {
+        clear();
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * An image in the window
+     */
+    private static final class Prefetched {
+        private final IImageViewer viewer;
+        private volatile Future<BufferedImage> future;
+        private volatile BufferedImage image;
+        /** Guarded by {@code this} */
+        private long bytes;
+        /** Guarded by {@code this} */
+        private boolean released;
+
+        Prefetched(IImageViewer viewer) {
+            this.viewer = viewer;
+        }
+
+        synchronized boolean add(long added) {
+            if (this.released) {
+                return false;
+            }
+            this.bytes += added;
+            return true;
+        }
+
+        synchronized long release() {
+            this.released = true;
+            final long released = this.bytes;
+            this.bytes = 0;
+            return released;
+        }
+    }
+}
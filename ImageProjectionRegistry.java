@@ -1,29 +1,57 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
 
+import java.awt.image.BufferedImage;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import org.openstreetmap.josm.data.imagery.street_level.Projections;
 import org.openstreetmap.josm.tools.JosmRuntimeException;
 
 /**
  * A class that holds a registry of viewers for image projections
+ * <p>
+ * Viewers are registered with a factory and the projections they support, which are only looked up once.
+ * The registrations are kept in an immutable map that is replaced on every change, so lookups never lock and
+ * never use reflection. Plugins may register viewers from any thread.
+ * <p>
+ * Some images cannot be told apart by their metadata, e.g. raw fisheye frames are tagged as perspective images.
+ * Viewers for those are registered with a detector instead, which is asked about every image that is tagged as
+ * {@link Projections#PERSPECTIVE perspective} or {@link Projections#UNKNOWN unknown}, see
+ * {@link #getViewer(Projections, BufferedImage)}.
  * @since 18246
  */
 public final class ImageProjectionRegistry {
-    private static final EnumMap<Projections, Class<? extends IImageViewer>> DEFAULT_VIEWERS = new EnumMap<>(Projections.class);
+    /** The viewer used when nothing is registered for a projection, or for {@link Projections#UNKNOWN} */
+    private static final Registration FALLBACK = new Registration(Perspective.class, Perspective::new,
+            EnumSet.of(Projections.PERSPECTIVE));
+    /** The projections of images that are checked by the detectors of detected viewers */
+    private static final Set<Projections> DETECTED_PROJECTIONS = EnumSet.of(Projections.PERSPECTIVE, Projections.UNKNOWN);
+    /** The current registrations. The map is never modified once it has been published. */
+    private static volatile Map<Projections, Registration> defaultViewers = Collections.emptyMap();
+    /** The current registrations with a detector, in the order they are asked. The list is never modified either. */
+    private static volatile List<Registration> detectedViewers = Collections.emptyList();
 
     // Register the default viewers
     static {
-        try {
-            registerViewer(Perspective.class);
-            registerViewer(Equirectangular.class);
-        } catch (ReflectiveOperationException e) {
-            throw new JosmRuntimeException(e);
+        registerViewer(Perspective.class, Perspective::new, EnumSet.of(Projections.PERSPECTIVE));
+        registerViewer(Equirectangular.class, Equirectangular::new, EnumSet.of(Projections.EQUIRECTANGULAR));
+        if (CubeMap.USE_FOR_EQUIRECTANGULAR.get()) {
+            registerViewer(CubeMap.class, CubeMap::new, EnumSet.of(Projections.EQUIRECTANGULAR));
         }
+        registerDetectedViewer(Fisheye.class, Fisheye::new, Fisheye::isFisheyeFrame);
+        // After the fisheye viewer, since dual fisheye frames are wide too
+        registerDetectedViewer(Cylindrical.class, Cylindrical::new, Cylindrical::isCylindricalPanorama);
     }
 
     private ImageProjectionRegistry() {
@@ -38,25 +66,99 @@ public final class ImageProjectionRegistry {
      */
     public static boolean registerViewer(Class<? extends IImageViewer> clazz) throws ReflectiveOperationException {
         Objects.requireNonNull(clazz, "null classes are hard to instantiate");
-        final IImageViewer object = clazz.getConstructor().newInstance();
+        final Constructor<? extends IImageViewer> constructor = clazz.getConstructor();
+        final IImageViewer object = constructor.newInstance();
+        return registerViewer(clazz, () -> {
+            try {
+                return constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new JosmRuntimeException(e);
+            }
+        }, object.getSupportedProjections());
+    }
+
+    /**
+     * Register a new viewer. One viewer is created to find the supported projections.
+     * @param clazz The class of the viewers the factory creates
+     * @param factory The factory for new viewers
+     * @return {@code true} if something changed
+     * @since xxx
+     */
+    public static boolean registerViewer(Class<? extends IImageViewer> clazz, Supplier<? extends IImageViewer> factory) {
+        Objects.requireNonNull(factory, "factory");
+        return registerViewer(clazz, factory, factory.get().getSupportedProjections());
+    }
+
+    /**
+     * Register a new viewer without creating one
+     * @param clazz The class of the viewers the factory creates
+     * @param factory The factory for new viewers
+     * @param projections The projections the viewers support
+     * @return {@code true} if something changed
+     * @since xxx
+     */
+    public static synchronized boolean registerViewer(Class<? extends IImageViewer> clazz,
+            Supplier<? extends IImageViewer> factory, Set<Projections> projections) {
+        Objects.requireNonNull(clazz, "clazz");
+        Objects.requireNonNull(factory, "factory");
+        final Registration registration = new Registration(clazz, factory, projections);
+        final Map<Projections, Registration> viewers = copyViewers();
         boolean changed = false;
-        for (Projections projections : object.getSupportedProjections()) {
-            changed = clazz.equals(DEFAULT_VIEWERS.put(projections, clazz)) || changed;
+        for (Projections projection : registration.projections) {
+            final Registration previous = viewers.put(projection, registration);
+            changed = previous == null || !clazz.equals(previous.clazz) || changed;
+        }
+        defaultViewers = Collections.unmodifiableMap(viewers);
+        return changed;
+    }
+
+    /**
+     * Register a new viewer for images that are recognized by their pixels, not by their metadata.
+     * Detectors are asked in the order they were registered; a new registration for the same class replaces
+     * the old one in place.
+     * @param clazz The class of the viewers the factory creates
+     * @param factory The factory for new viewers
+     * @param detector Whether a perspective or unknown image should be shown with the viewer.
+     * This is called with the decoded image, on the thread that looks up the viewer, and should be quick.
+     * @return {@code true} if something changed
+     * @since xxx
+     */
+    public static synchronized boolean registerDetectedViewer(Class<? extends IImageViewer> clazz,
+            Supplier<? extends IImageViewer> factory, Predicate<BufferedImage> detector) {
+        Objects.requireNonNull(clazz, "clazz");
+        Objects.requireNonNull(factory, "factory");
+        Objects.requireNonNull(detector, "detector");
+        final Registration registration = new Registration(clazz, factory, detector);
+        final List<Registration> viewers = new ArrayList<>(detectedViewers);
+        boolean changed = true;
+        for (int i = 0; i < viewers.size(); i++) {
+            if (viewers.get(i).clazz.equals(clazz)) {
+                viewers.set(i, registration);
+                changed = false;
+            }
         }
+        if (changed) {
+            viewers.add(registration);
+        }
+        detectedViewers = Collections.unmodifiableList(viewers);
         return changed;
     }
 
     /**
-     * Remove a viewer
+     * Remove a viewer, both for the projections it supports and for the images it detects
      * @param clazz The class to remove.
      * @return {@code true} if something changed
      */
-    public static boolean removeViewer(Class<? extends IImageViewer> clazz) {
-        boolean changed = false;
-        for (Projections projections : DEFAULT_VIEWERS.entrySet().stream()
-                .filter(entry -> entry.getValue().equals(clazz)).map(Map.Entry::getKey)
-                .collect(Collectors.toList())) {
-            changed = DEFAULT_VIEWERS.remove(projections, clazz) || changed;
+    public static synchronized boolean removeViewer(Class<? extends IImageViewer> clazz) {
+        final Map<Projections, Registration> viewers = copyViewers();
+        boolean changed = viewers.values().removeIf(registration -> registration.clazz.equals(clazz));
+        if (changed) {
+            defaultViewers = Collections.unmodifiableMap(viewers);
+        }
+        final List<Registration> detected = new ArrayList<>(detectedViewers);
+        if (detected.removeIf(registration -> registration.clazz.equals(clazz))) {
+            detectedViewers = Collections.unmodifiableList(detected);
+            changed = true;
         }
         return changed;
     }
@@ -67,6 +169,153 @@ public final class ImageProjectionRegistry {
      * @return The class to use
      */
     public static Class<? extends IImageViewer> getViewer(Projections projection) {
-        return DEFAULT_VIEWERS.getOrDefault(projection, DEFAULT_VIEWERS.getOrDefault(Projections.UNKNOWN, Perspective.class));
+        return getRegistration(projection).clazz;
+    }
+
+    /**
+     * Get the viewer for an image, asking the detectors if it is a perspective or unknown image
+     * @param projection The projection of the image, from its metadata
+     * @param image The decoded image
+     * @return The class to use
+     * @since xxx
+     */
+    public static Class<? extends IImageViewer> getViewer(Projections projection, BufferedImage image) {
+        return getRegistration(projection, image).clazz;
+    }
+
+    /**
+     * Create a new viewer for a specific projection type
+     * @param projection The projection to view
+     * @return The new viewer
+     * @since xxx
+     */
+    public static IImageViewer createViewer(Projections projection) {
+        return getRegistration(projection).factory.get();
+    }
+
+    /**
+     * Create a new viewer for an image, asking the detectors if it is a perspective or unknown image
+     * @param projection The projection of the image, from its metadata
+     * @param image The decoded image
+     * @return The new viewer
+     * @since xxx
+     */
+    public static IImageViewer createViewer(Projections projection, BufferedImage image) {
+        return getRegistration(projection, image).factory.get();
+    }
+
+    /**
+     * Create a cache of viewers for one image display, so that switching between images of the same projection
+     * reuses the viewer (and its buffers) instead of creating a new one.
+     * @return A new, empty cache. It is not thread safe, and should only be used by the display that created it.
+     * @since xxx
+     */
+    public static ViewerCache createViewerCache() {
+        return new ViewerCache();
+    }
+
+    private static Registration getRegistration(Projections projection, BufferedImage image) {
+        if (image != null && DETECTED_PROJECTIONS.contains(projection)) {
+            for (Registration registration : detectedViewers) {
+                if (registration.detector.test(image)) {
+                    return registration;
+                }
+            }
+        }
+        return getRegistration(projection);
+    }
+
+    private static Registration getRegistration(Projections projection) {
+        final Map<Projections, Registration> viewers = defaultViewers;
+        final Registration registration = viewers.get(projection);
+        if (registration != null) {
+            return registration;
+        }
+        return viewers.getOrDefault(Projections.UNKNOWN, FALLBACK);
+    }
+
+    private static Map<Projections, Registration> copyViewers() {
+        final EnumMap<Projections, Registration> viewers = new EnumMap<>(Projections.class);
+        viewers.putAll(defaultViewers);
+        return viewers;
+    }
+
+    /**
+     * A registered viewer factory, with the projections it supports or the detector for the images it shows
+     */
+    private static final class Registration {
+        private final Class<? extends IImageViewer> clazz;
+        private final Supplier<? extends IImageViewer> factory;
+        private final Set<Projections> projections;
+        /** The detector of the images to show with the viewer, {@code null} if it is registered by projection */
+        private final Predicate<BufferedImage> detector;
+
+        Registration(Class<? extends IImageViewer> clazz, Supplier<? extends IImageViewer> factory,
+                Set<Projections> projections) {
+            this.clazz = clazz;
+            this.factory = factory;
+            this.projections = projections.isEmpty() ? EnumSet.noneOf(Projections.class) : EnumSet.copyOf(projections);
+            this.detector = null;
+        }
+
+        Registration(Class<? extends IImageViewer> clazz, Supplier<? extends IImageViewer> factory,
+                Predicate<BufferedImage> detector) {
+            this.clazz = clazz;
+            this.factory = factory;
+            this.projections = EnumSet.noneOf(Projections.class);
+            this.detector = detector;
+        }
+    }
+
+    /**
+     * The viewers used by one image display, one per registered viewer.
+     * A viewer is replaced when the registration for its projection changes.
+     * @since xxx
+     */
+    public static final class ViewerCache {
+        private final Map<Registration, IImageViewer> viewers = new IdentityHashMap<>();
+
+        private ViewerCache() {
+            // Use ImageProjectionRegistry#createViewerCache
+        }
+
+        /**
+         * Get the viewer for a specific projection type, creating it if needed
+         * @param projection The projection to view
+         * @return The viewer, which is the same instance as last time unless the registry has changed
+         */
+        public IImageViewer getViewer(Projections projection) {
+            return getViewer(getRegistration(projection));
+        }
+
+        /**
+         * Get the viewer for an image, creating it if needed. The detectors are asked if it is a perspective or
+         * unknown image.
+         * @param projection The projection of the image, from its metadata
+         * @param image The decoded image
+         * @return The viewer, which is the same instance as last time unless the registry has changed
+         * @since xxx
+         */
+        public IImageViewer getViewer(Projections projection, BufferedImage image) {
+            return getViewer(getRegistration(projection, image));
+        }
+
+        private IImageViewer getViewer(Registration registration) {
+            IImageViewer viewer = this.viewers.get(registration);
+            if (viewer == null) {
+                // Drop the viewers of registrations that have been replaced
+                this.viewers.keySet().removeIf(old -> old.clazz.equals(registration.clazz));
+                viewer = registration.factory.get();
+                this.viewers.put(registration, viewer);
+            }
+            return viewer;
+        }
+
+        /**
+         * Forget all viewers, e.g. when the display is closed
+         */
+        public void clear() {
+            this.viewers.clear();
+        }
     }
 }
@@ -0,0 +1,164 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Direct access to the packed ARGB pixels of a {@link BufferedImage#TYPE_INT_ARGB} image.
+ * <p>
+ * Reading and writing the backing {@code int[]} avoids the color model conversion that
+ * {@link BufferedImage#getRGB(int, int)} and {@link BufferedImage#setRGB(int, int, int)} do for every pixel.
+ * Sub images are supported, so the pixel at (x, y) is at {@code getOffset() + y * getScanlineStride() + x}.
+ */
+final class IntRaster implements PixelSource {
+    /** The image type used for both the normalized source images and the offscreen images */
+    static final int IMAGE_TYPE = BufferedImage.TYPE_INT_ARGB;
+
+    private final BufferedImage image;
+    private final int width;
+    private final int height;
+    private final int[] data;
+    private final int offset;
+    private final int scanlineStride;
+
+    private IntRaster(BufferedImage image) {
+        this.image = image;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        final WritableRaster raster = image.getRaster();
+        final SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        final DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+        this.data = dataBuffer.getData();
+        this.scanlineStride = sampleModel.getScanlineStride();
+        this.offset = dataBuffer.getOffset()
+                + sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+    }
+
+    /**
+     * Wrap an image, converting it to {@link #IMAGE_TYPE} first if needed
+     * @param image The image to wrap
+     * @return The raster. If the image had to be converted, {@link #getImage()} returns the converted copy.
+     */
+    static IntRaster of(BufferedImage image) {
+        if (image.getType() == IMAGE_TYPE) {
+            return new IntRaster(image);
+        }
+        final BufferedImage converted = createImage(image.getWidth(), image.getHeight());
+        final Graphics2D graphics = converted.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return new IntRaster(converted);
+    }
+
+    /**
+     * Create a new image that can be wrapped without conversion
+     * @param width The width of the image
+     * @param height The height of the image
+     * @return The new image
+     */
+    static BufferedImage createImage(int width, int height) {
+        return new BufferedImage(width, height, IMAGE_TYPE);
+    }
+
+    /**
+     * Get the wrapped image
+     * @return The image whose pixels are in {@link #getData()}
+     */
+    BufferedImage getImage() {
+        return this.image;
+    }
+
+    /**
+     * Get the width of the raster
+     * @return The width in pixels
+     */
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * Get the height of the raster
+     * @return The height in pixels
+     */
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Get the packed ARGB pixels. Writes are visible in the image.
+     * @return The backing array (not a copy)
+     */
+    int[] getData() {
+        return this.data;
+    }
+
+    /**
+     * Get the index of the pixel at (0, 0) in {@link #getData()}
+     * @return The offset
+     */
+    int getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Get the distance between two rows in {@link #getData()}
+     * @return The scanline stride
+     */
+    int getScanlineStride() {
+        return this.scanlineStride;
+    }
+
+    @Override
+    public int getPixel(int x, int y) {
+        return this.data[this.offset + y * this.scanlineStride + x];
+    }
+
+    @Override
+    public int sampleNearest(double u, double v) {
+        return this.data[this.offset + (int) (v * (this.height - 1)) * this.scanlineStride + (int) (u * (this.width - 1))];
+    }
+
+    @Override
+    public int sampleBilinear(double u, double v) {
+        return sampleBilinear(u, v, true);
+    }
+
+    @Override
+    public int sampleBilinear(double u, double v, boolean wrap) {
+        final double x = u * (this.width - 1);
+        final double y = v * (this.height - 1);
+        final int x0 = (int) x;
+        final int y0 = (int) y;
+        final int x1 = x0 + 1 < this.width ? x0 + 1 : wrap ? 0 : x0;
+        final int y1 = y0 + 1 < this.height ? y0 + 1 : y0;
+        final int weightX = (int) ((x - x0) * 256);
+        final int weightY = (int) ((y - y0) * 256);
+        final int row0 = this.offset + y0 * this.scanlineStride;
+        final int row1 = this.offset + y1 * this.scanlineStride;
+        return lerp(lerp(this.data[row0 + x0], this.data[row0 + x1], weightX),
+                lerp(this.data[row1 + x0], this.data[row1 + x1], weightX), weightY);
+    }
+
+    /**
+     * Linearly interpolate between two packed ARGB pixels
+     * @param c0 The first pixel
+     * @param c1 The second pixel
+     * @param weight The weight of the second pixel, from 0 to 256
+     * @return The interpolated pixel
+     */
+    static int lerp(int c0, int c1, int weight) {
+        // Interpolate the red and blue, and the alpha and green, channels in parallel
+        final int rb = ((c0 & 0xFF00FF) * (256 - weight) + (c1 & 0xFF00FF) * weight) >>> 8 & 0xFF00FF;
+        final int ag = ((c0 >>> 8 & 0xFF00FF) * (256 - weight) + (c1 >>> 8 & 0xFF00FF) * weight) & 0xFF00FF00;
+        return rb | ag;
+    }
+}
@@ -0,0 +1,151 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A pyramid of successively halved copies of an equirectangular image.
+ * <p>
+ * Sampling from the level that matches the angular pixel density of the viewport avoids aliasing and keeps
+ * the sampled pixels close together in memory. The reduced levels are only built as long as they fit in the
+ * memory budget, so a pyramid may consist of the full resolution image only.
+ */
+final class MipPyramid {
+    /** Levels are not reduced any further once they are smaller than this */
+    private static final int MINIMUM_SIZE = 16;
+
+    private final List<IntRaster> levels;
+    private final long memoryUsage;
+
+    /**
+     * Build a new pyramid
+     * @param base The full resolution image
+     * @param maximumMemory The maximum number of bytes the reduced levels may use
+     */
+    MipPyramid(IntRaster base, long maximumMemory) {
+        final List<IntRaster> temporaryLevels = new ArrayList<>();
+        temporaryLevels.add(base);
+        final long usage = estimateMemoryUsage(base.getWidth(), base.getHeight(), maximumMemory);
+        IntRaster current = base;
+        for (long built = 0; built < usage; built += 4L * current.getWidth() * current.getHeight()) {
+            current = halve(current);
+            temporaryLevels.add(current);
+        }
+        this.levels = Collections.unmodifiableList(temporaryLevels);
+        this.memoryUsage = usage;
+    }
+
+    /**
+     * Compute the memory the reduced levels of a pyramid will use, without building it
+     * @param width The width of the full resolution image
+     * @param height The height of the full resolution image
+     * @param maximumMemory The maximum number of bytes the reduced levels may use
+     * @return The number of bytes {@link #getMemoryUsage} will return for the pyramid
+     */
+    static long estimateMemoryUsage(int width, int height, long maximumMemory) {
+        long usage = 0;
+        int levelWidth = width;
+        int levelHeight = height;
+        while (levelWidth / 2 >= MINIMUM_SIZE && levelHeight / 2 >= MINIMUM_SIZE) {
+            final long levelMemory = 4L * (levelWidth / 2) * (levelHeight / 2);
+            if (usage + levelMemory > maximumMemory) {
+                break;
+            }
+            levelWidth /= 2;
+            levelHeight /= 2;
+            usage += levelMemory;
+        }
+        return usage;
+    }
+
+    /**
+     * Get the number of levels, including the full resolution level
+     * @return The number of levels
+     */
+    int getLevelCount() {
+        return this.levels.size();
+    }
+
+    /**
+     * Get a level
+     * @param level The level, {@code 0} is the full resolution
+     * @return The image for the level
+     */
+    IntRaster getLevel(int level) {
+        return this.levels.get(level);
+    }
+
+    /**
+     * Get the memory used by the reduced levels
+     * @return The number of bytes used in addition to the full resolution image
+     */
+    long getMemoryUsage() {
+        return this.memoryUsage;
+    }
+
+    /**
+     * Get the level that matches an angular pixel density
+     * @param radiansPerPixel The angle between two adjacent pixels of the viewport
+     * @return The level with at least one source pixel per viewport pixel
+     */
+    int getLevel(double radiansPerPixel) {
+        return getLevel(radiansPerPixel, this.levels.get(0).getWidth(), this.levels.size());
+    }
+
+    /**
+     * Get the level of a pyramid that matches an angular pixel density
+     * @param radiansPerPixel The angle between two adjacent pixels of the viewport
+     * @param width The width of the full resolution equirectangular image
+     * @param levelCount The number of levels in the pyramid
+     * @return The level with at least one source pixel per viewport pixel
+     */
+    static int getLevel(double radiansPerPixel, int width, int levelCount) {
+        final double sourcePixelsPerPixel = radiansPerPixel * width / (2 * Math.PI);
+        if (!(sourcePixelsPerPixel > 1)) {
+            return 0;
+        }
+        final int level = (int) Math.floor(Math.log(sourcePixelsPerPixel) / Math.log(2));
+        return Math.min(level, levelCount - 1);
+    }
+
+    /**
+     * Halve an image by averaging 2x2 blocks of pixels
+     * @param source The image to halve
+     * @return The new image
+     */
+    private static IntRaster halve(IntRaster source) {
+        final int width = source.getWidth() / 2;
+        final int height = source.getHeight() / 2;
+        final IntRaster target = IntRaster.of(IntRaster.createImage(width, height));
+        final int[] sourceData = source.getData();
+        final int[] targetData = target.getData();
+        final int stride = source.getScanlineStride();
+        for (int y = 0; y < height; y++) {
+            int sourceIndex = source.getOffset() + 2 * y * stride;
+            int targetIndex = target.getOffset() + y * target.getScanlineStride();
+            for (int x = 0; x < width; x++) {
+                targetData[targetIndex++] = average(sourceData[sourceIndex], sourceData[sourceIndex + 1],
+                        sourceData[sourceIndex + stride], sourceData[sourceIndex + stride + 1]);
+                sourceIndex += 2;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Average four packed ARGB pixels
+     * @param c0 The first pixel
+     * @param c1 The second pixel
+     * @param c2 The third pixel
+     * @param c3 The fourth pixel
+     * @return The average of each channel
+     */
+    private static int average(int c0, int c1, int c2, int c3) {
+        // Add the red and blue, and the alpha and green, channels in parallel. Each sum fits in 10 bits.
+        final long rb = (c0 & 0xFF00FFL) + (c1 & 0xFF00FFL) + (c2 & 0xFF00FFL) + (c3 & 0xFF00FFL);
+        final long ag = (c0 >>> 8 & 0xFF00FFL) + (c1 >>> 8 & 0xFF00FFL) + (c2 >>> 8 & 0xFF00FFL) + (c3 >>> 8 & 0xFF00FFL);
+        return (int) ((rb >>> 2 & 0xFF00FFL) | (ag << 6 & 0xFF00FF00L));
+    }
+}
@@ -0,0 +1,439 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.openstreetmap.josm.gui.util.imagery.CameraPlane;
+import org.openstreetmap.josm.gui.util.imagery.Vector3D;
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Renders view crops and thumbnails of equirectangular images to files, without a display.
+ * <p>
+ * Views are rendered with the same {@link CameraPlane} rays, {@link MipPyramid mip levels} and
+ * {@link SphericalKernel kernels} as the {@link Equirectangular} viewer. The ray table of every view is built once
+ * and shared by all images. Images are read one at a time from an iterator, and each worker thread holds at most
+ * one decoded image, so memory does not grow with the number of images.
+ * <p>
+ * The views of an image are written to {@code NAME_HASH_VIEW.FORMAT}, where {@code NAME} is the file name of the
+ * image without its extension and {@code HASH} is a hash of its path. Images with the same name in different
+ * directories thus do not overwrite each other's views.
+ * <p>
+ * Run {@link #main} for the command line interface.
+ * @since xxx
+ */
+public final class PanoramaBatchRenderer {
+    /** Images between two progress messages */
+    private static final int PROGRESS_INTERVAL = 100;
+
+    private final List<ViewSpec> views;
+    /** The ray table of each view, {@code null} for thumbnails */
+    private final List<RayTable> rayTables;
+    private final File outputDirectory;
+    private final String format;
+    private final int threads;
+    private final long mipmapMemory;
+
+    /**
+     * Create a new batch renderer
+     * @param views The views to render of every image
+     * @param outputDirectory The directory to write the views to
+     * @param format The image format of the views, e.g. {@code png} or {@code jpg}
+     * @param threads The number of images to render at the same time
+     * @param mipmapMemory The maximum number of bytes used by the reduced levels of each image
+     */
+    public PanoramaBatchRenderer(List<ViewSpec> views, File outputDirectory, String format, int threads,
+            long mipmapMemory) {
+        if (views.isEmpty()) {
+            throw new IllegalArgumentException("No views to render");
+        }
+        this.views = Collections.unmodifiableList(new ArrayList<>(views));
+        this.outputDirectory = Objects.requireNonNull(outputDirectory, "outputDirectory");
+        this.format = Objects.requireNonNull(format, "format");
+        this.threads = Math.max(1, threads);
+        this.mipmapMemory = mipmapMemory;
+        this.rayTables = new ArrayList<>(views.size());
+        for (ViewSpec view : views) {
+            this.rayTables.add(view.isThumbnail() ? null : RayTable.of(view.width, view.height, view.getDistance()));
+        }
+    }
+
+    /**
+     * Render all views of all images. This returns once every image has been rendered or has failed.
+     * @param images The equirectangular images. They are only read as they are needed.
+     * @return The statistics of the run
+     * @throws InterruptedException if the thread was interrupted while waiting for the workers
+     */
+    public Result render(Iterator<File> images) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(this.threads,
+                Utils.newThreadFactory("panorama-batch-renderer-%d", Thread.NORM_PRIORITY));
+        // One permit per worker, so that no more images are decoded than can be rendered
+        final Semaphore inFlight = new Semaphore(this.threads);
+        final AtomicLong rendered = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final long start = System.nanoTime();
+        try {
+            while (images.hasNext()) {
+                final File image = images.next();
+                inFlight.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            renderImage(image);
+                            final long count = rendered.incrementAndGet();
+                            if (count % PROGRESS_INTERVAL == 0) {
+                                Logging.info("Rendered {0} images, {1} images/s", count,
+                                        String.format(Locale.ROOT, "%.2f", count * 1e9 / (System.nanoTime() - start)));
+                            }
+                        } catch (IOException | UncheckedIOException e) {
+                            failed.incrementAndGet();
+                            Logging.warn("Cannot render {0}: {1}", image, e.getMessage());
+                        } catch (RuntimeException e) {
+                            failed.incrementAndGet();
+                            Logging.warn("Cannot render {0}: {1}", image, e);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
+            }
+            // Wait for the last images
+            inFlight.acquire(this.threads);
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Result(rendered.get(), rendered.get() * this.views.size(), failed.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Render all views of one image
+     * @param file The equirectangular image
+     * @throws IOException if the image cannot be read, or a view cannot be written
+     */
+    private void renderImage(File file) throws IOException {
+        final BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("No image reader for " + file);
+        }
+        final MipPyramid pyramid = new MipPyramid(IntRaster.of(image), this.mipmapMemory);
+        final String baseName = getBaseName(file);
+        for (int i = 0; i < this.views.size(); i++) {
+            final ViewSpec view = this.views.get(i);
+            final RayTable rayTable = this.rayTables.get(i);
+            final IntRaster target = IntRaster.of(IntRaster.createImage(view.width, view.height));
+            if (rayTable == null) {
+                renderThumbnail(pyramid, target);
+            } else {
+                final PixelSource source = pyramid.getLevel(pyramid.getLevel(rayTable.getRadiansPerPixel()));
+                rayTable.mapping(source, target, new Rectangle(view.width, view.height), view.getRotation(),
+                        SamplingQuality.BILINEAR);
+            }
+            write(target.getImage(), new File(this.outputDirectory, baseName + '_' + view.getName() + '.' + this.format));
+        }
+    }
+
+    /**
+     * Get the start of the names of the views of an image: its file name without the extension, and a hash of its
+     * path. The hash only depends on the path, so rendering the image again overwrites its views.
+     * @param file The image
+     * @return The base name
+     */
+    private static String getBaseName(File file) {
+        final String path = file.getAbsoluteFile().toPath().normalize().toString();
+        return file.getName().replaceFirst("\\.[^.]*$", "") + '_' + String.format(Locale.ROOT, "%08x", path.hashCode());
+    }
+
+    private static void renderThumbnail(MipPyramid pyramid, IntRaster target) {
+        final PixelSource source = pyramid.getLevel(pyramid.getLevel(2 * Math.PI / target.getWidth()));
+        final int[] data = target.getData();
+        for (int y = 0; y < target.getHeight(); y++) {
+            final double v = (y + 0.5) / target.getHeight();
+            final int row = target.getOffset() + y * target.getScanlineStride();
+            for (int x = 0; x < target.getWidth(); x++) {
+                data[row + x] = source.sampleBilinear((x + 0.5) / target.getWidth(), v);
+            }
+        }
+    }
+
+    private void write(BufferedImage rendered, File output) throws IOException {
+        BufferedImage image = rendered;
+        if (!"png".equalsIgnoreCase(this.format)) {
+            // Most other writers, JPEG in particular, cannot write an alpha channel
+            image = new BufferedImage(rendered.getWidth(), rendered.getHeight(), BufferedImage.TYPE_INT_RGB);
+            final Graphics2D g = image.createGraphics();
+            try {
+                g.drawImage(rendered, 0, 0, null);
+            } finally {
+                g.dispose();
+            }
+        }
+        if (!ImageIO.write(image, this.format, output)) {
+            throw new IOException("No image writer for " + this.format);
+        }
+    }
+
+    /**
+     * Run the batch renderer from the command line
+     * @param args The command line arguments, see the usage message
+     */
+    public static void main(String[] args) {
+        final List<ViewSpec> views = new ArrayList<>();
+        File output = null;
+        String format = "jpg";
+        int threads = Runtime.getRuntime().availableProcessors();
+        long mipmapMemory = 256L * 1024 * 1024;
+        String list = "-";
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                case "--view":
+                    views.add(ViewSpec.parse(args[++i]));
+                    break;
+                case "--output":
+                    output = new File(args[++i]);
+                    break;
+                case "--format":
+                    format = args[++i];
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--mipmap-memory":
+                    mipmapMemory = Long.parseLong(args[++i]) * 1024 * 1024;
+                    break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                    }
+                    list = args[i];
+                }
+            }
+            if (output == null) {
+                throw new IllegalArgumentException("No output directory");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+        if (views.isEmpty()) {
+            views.add(ViewSpec.parse("512x256"));
+        }
+        if (!output.isDirectory() && !output.mkdirs()) {
+            System.err.println("Cannot create " + output);
+            System.exit(2);
+        }
+        try (BufferedReader reader = "-".equals(list)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(list), StandardCharsets.UTF_8)) {
+            final Iterator<File> images = reader.lines().map(String::trim).filter(line -> !line.isEmpty())
+                    .map(File::new).iterator();
+            final Result result = new PanoramaBatchRenderer(views, output, format, threads, mipmapMemory).render(images);
+            System.out.println(result);
+            System.exit(result.getFailures() > 0 ? 1 : 0);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Cannot read the image list: " + e.getMessage());
+            System.exit(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(130);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: PanoramaBatchRenderer --output DIR [--view SPEC]... [--format jpg|png]"
+                + " [--threads N] [--mipmap-memory MiB] [LIST]\n"
+                + "  SPEC is yaw,pitch,fov,WIDTHxHEIGHT (angles in degrees) for a view crop,\n"
+                + "  or WIDTHxHEIGHT for a thumbnail of the whole panorama (the default is 512x256).\n"
+                + "  LIST is a file with one equirectangular image per line, or - for standard input (the default).\n"
+                + "  The views are written to DIR/NAME_HASH_VIEW.FORMAT, where HASH tells images with the same NAME apart.");
+    }
+
+    /**
+     * A view to render of every image
+     */
+    public static final class ViewSpec {
+        private final boolean thumbnail;
+        private final double yaw;
+        private final double pitch;
+        private final double fieldOfView;
+        private final int width;
+        private final int height;
+
+        private ViewSpec(boolean thumbnail, double yaw, double pitch, double fieldOfView, int width, int height) {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Invalid view size " + width + 'x' + height);
+            }
+            if (!thumbnail && (fieldOfView <= 0 || fieldOfView >= 180)) {
+                throw new IllegalArgumentException("The field of view must be between 0 and 180 degrees: " + fieldOfView);
+            }
+            this.thumbnail = thumbnail;
+            this.yaw = yaw;
+            this.pitch = pitch;
+            this.fieldOfView = fieldOfView;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Create a view crop
+         * @param yaw The heading of the view center, in degrees
+         * @param pitch The pitch of the view center, in degrees
+         * @param fieldOfView The horizontal field of view, in degrees
+         * @param width The width of the view
+         * @param height The height of the view
+         * @return The view
+         */
+        public static ViewSpec crop(double yaw, double pitch, double fieldOfView, int width, int height) {
+            return new ViewSpec(false, yaw, pitch, fieldOfView, width, height);
+        }
+
+        /**
+         * Create a thumbnail of the whole panorama
+         * @param width The width of the thumbnail
+         * @param height The height of the thumbnail
+         * @return The view
+         */
+        public static ViewSpec thumbnail(int width, int height) {
+            return new ViewSpec(true, 0, 0, 360, width, height);
+        }
+
+        /**
+         * Parse a view from {@code yaw,pitch,fov,WIDTHxHEIGHT} (a crop) or {@code WIDTHxHEIGHT} (a thumbnail)
+         * @param spec The view
+         * @return The parsed view
+         * @throws IllegalArgumentException if the view cannot be parsed
+         */
+        public static ViewSpec parse(String spec) {
+            final String[] parts = spec.split(",", -1);
+            final String[] size = parts[parts.length - 1].split("x", -1);
+            try {
+                if (size.length != 2) {
+                    throw new IllegalArgumentException("Invalid view size in " + spec);
+                }
+                final int width = Integer.parseInt(size[0].trim());
+                final int height = Integer.parseInt(size[1].trim());
+                if (parts.length == 1) {
+                    return thumbnail(width, height);
+                } else if (parts.length == 4) {
+                    return crop(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                            width, height);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid view " + spec, e);
+            }
+            throw new IllegalArgumentException("Invalid view " + spec);
+        }
+
+        boolean isThumbnail() {
+            return this.thumbnail;
+        }
+
+        /**
+         * Get the distance of the camera plane for the field of view
+         * @return The distance, in pixels
+         */
+        double getDistance() {
+            return this.width / 2d / Math.tan(Math.toRadians(this.fieldOfView) / 2);
+        }
+
+        Vector3D getRotation() {
+            return new Vector3D(Vector3D.VectorType.RPA, 1, Math.toRadians(this.yaw), Math.toRadians(this.pitch));
+        }
+
+        /**
+         * Get the name of the view, which is part of the file names
+         * @return The name
+         */
+        public String getName() {
+            if (this.thumbnail) {
+                return this.width + "x" + this.height;
+            }
+            return String.format(Locale.ROOT, "%g_%g_%g_%dx%d", this.yaw, this.pitch, this.fieldOfView, this.width,
+                    this.height).replaceAll("\\.?0+_", "_");
+        }
+    }
+
+    /**
+     * The statistics of a run
+     */
+    public static final class Result {
+        private final long images;
+        private final long views;
+        private final long failures;
+        private final long nanos;
+
+        Result(long images, long views, long failures, long nanos) {
+            this.images = images;
+            this.views = views;
+            this.failures = failures;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Get the number of images that were rendered
+         * @return The number of images, without the ones that failed
+         */
+        public long getImages() {
+            return this.images;
+        }
+
+        /**
+         * Get the number of views that were written
+         * @return The number of views
+         */
+        public long getViews() {
+            return this.views;
+        }
+
+        /**
+         * Get the number of images that could not be read or written
+         * @return The number of failures
+         */
+        public long getFailures() {
+            return this.failures;
+        }
+
+        /**
+         * Get the throughput of the run
+         * @return The rendered images per second of wall time
+         */
+        public double getImagesPerSecond() {
+            return this.nanos > 0 ? this.images * 1e9 / this.nanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Rendered %d images (%d views, %d failed) in %.1f s: %.2f images/s",
+                    this.images, this.views, this.failures, this.nanos / 1e9, getImagesPerSecond());
+        }
+    }
+}
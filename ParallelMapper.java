@@ -0,0 +1,124 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Rectangle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+
+/**
+ * Split the mapping of an offscreen image into row bands and map them on a {@link ForkJoinPool}.
+ * <p>
+ * {@link #mapping(Rectangle, BandMapper)} only returns once every band has been mapped, so the caller can
+ * draw the offscreen image right afterwards. Small rectangles are mapped on the calling thread, since
+ * scheduling them would cost more than the mapping itself.
+ * <p>
+ * All mappers with the same parallelism share one pool, so that every viewer does not keep its own threads.
+ * The pools are never shut down; their threads end on their own once they have been idle for a while.
+ */
+final class ParallelMapper {
+    /** Rectangles with fewer pixels than this are mapped on the calling thread */
+    static final int SERIAL_THRESHOLD = 256 * 256;
+    /** Bands are not split any further once they have fewer pixels than this */
+    private static final int MINIMUM_BAND_PIXELS = 16 * 1024;
+    /** The shared pools, by parallelism */
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * Map a band of rows of the target image
+     */
+    @FunctionalInterface
+    interface BandMapper {
+        /**
+         * Map a band of rows
+         * @param band The part of the target image to map. This is never shared with another band.
+         */
+        void mapBand(Rectangle band);
+    }
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a new parallel mapper
+     * @param parallelism The number of threads to map on. {@code 1} or less always maps on the calling thread.
+     */
+    ParallelMapper(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.pool = this.parallelism > 1 ? POOLS.computeIfAbsent(this.parallelism, ForkJoinPool::new) : null;
+    }
+
+    /**
+     * Get the mapper of a viewer, creating it the first time it is needed
+     * @param mapper The mapper of the viewer, which holds {@code null} until then
+     * @param parallelism The preference with the number of threads to map on
+     * @return The mapper
+     */
+    static ParallelMapper getOrCreate(AtomicReference<ParallelMapper> mapper, IntegerProperty parallelism) {
+        final ParallelMapper currentMapper = mapper.get();
+        if (currentMapper != null) {
+            return currentMapper;
+        }
+        final ParallelMapper newMapper = new ParallelMapper(parallelism.get());
+        return mapper.compareAndSet(null, newMapper) ? newMapper : mapper.get();
+    }
+
+    /**
+     * Get the number of threads used for mapping
+     * @return The parallelism level
+     */
+    int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Map the rectangle, possibly in parallel, and wait for all bands to be done
+     * @param visibleRect The rectangle to map
+     * @param mapper The mapper to call for every band
+     */
+    void mapping(Rectangle visibleRect, BandMapper mapper) {
+        if (this.pool == null || (long) visibleRect.width * visibleRect.height < SERIAL_THRESHOLD) {
+            mapper.mapBand(visibleRect);
+        } else {
+            final int bandHeight = Math.max(1, Math.max(MINIMUM_BAND_PIXELS / Math.max(1, visibleRect.width),
+                    visibleRect.height / (this.parallelism * 4)));
+            this.pool.invoke(new BandTask(mapper, visibleRect.x, visibleRect.width, visibleRect.y,
+                    visibleRect.y + visibleRect.height, bandHeight));
+        }
+    }
+
+    private static final class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient BandMapper mapper;
+        private final int x;
+        private final int width;
+        private final int fromY;
+        private final int toY;
+        private final int bandHeight;
+
+        BandTask(BandMapper mapper, int x, int width, int fromY, int toY, int bandHeight) {
+            this.mapper = mapper;
+            this.x = x;
+            this.width = width;
+            this.fromY = fromY;
+            this.toY = toY;
+            this.bandHeight = bandHeight;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.toY - this.fromY <= this.bandHeight) {
+                this.mapper.mapBand(new Rectangle(this.x, this.fromY, this.width, this.toY - this.fromY));
+            } else {
+                final int middle = (this.fromY + this.toY) >>> 1;
+                invokeAll(new BandTask(this.mapper, this.x, this.width, this.fromY, middle, this.bandHeight),
+                        new BandTask(this.mapper, this.x, this.width, middle, this.toY, this.bandHeight));
+            }
+        }
+    }
+}
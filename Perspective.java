@@ -3,22 +3,45 @@ package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
 
 import java.awt.Component;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.openstreetmap.josm.data.imagery.street_level.Projections;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.gui.layer.geoimage.ImageDisplay;
+import org.openstreetmap.josm.gui.util.GuiHelper;
 
 /**
  * The default perspective image viewer class.
  * This also handles (by default) unknown projections.
+ * <p>
+ * When the image is zoomed out, it is drawn from a downscaled copy (see {@link ScaledImageCache}), so that
+ * Java2D does not have to resample the whole image on every repaint.
  * @since 18246
  */
 public class Perspective extends ComponentAdapter implements IImageViewer {
+    /** The maximum memory in MiB used by the downscaled copies of the current image */
+    private static final IntegerProperty SCALED_CACHE_MEMORY = new IntegerProperty(
+            "geoimage.viewer.perspective.scaled.memory", 128);
+
+    /** Downscaled copies of the current image, for drawing it zoomed out */
+    private final ScaledImageCache scaledImages = new ScaledImageCache(SCALED_CACHE_MEMORY.get() * 1024L * 1024L,
+            this::repaint);
+    private volatile Component component;
+    /** The metrics to record to, {@code null} to not even read the clock */
+    private volatile RenderMetrics metrics = RenderMetrics.createIfEnabled();
+    /** Whether a drag step has not been painted yet. Only used while recording metrics. */
+    private final AtomicBoolean dragPending = new AtomicBoolean();
 
     @Override
     public Set<Projections> getSupportedProjections() {
@@ -27,9 +50,94 @@ public class Perspective extends ComponentAdapter implements IImageViewer {
 
     @Override
     public void paintImage(Graphics g, BufferedImage image, Rectangle target, Rectangle r) {
-        g.drawImage(image,
-                target.x, target.y, target.x + target.width, target.y + target.height,
-                r.x, r.y, r.x + r.width, r.y + r.height, null);
+        final RenderMetrics currentMetrics = this.metrics;
+        final long blitStart = currentMetrics != null ? System.nanoTime() : 0;
+        // The number of times the image can be halved and still have a pixel for every target pixel
+        final int level = r.width > target.width && r.height > target.height && target.width > 0 && target.height > 0
+                ? 31 - Integer.numberOfLeadingZeros(Math.min(r.width / target.width, r.height / target.height)) : 0;
+        final BufferedImage scaled = level > 0 ? this.scaledImages.getLevel(image, level) : image;
+        if (scaled == image) {
+            g.drawImage(image,
+                    target.x, target.y, target.x + target.width, target.y + target.height,
+                    r.x, r.y, r.x + r.width, r.y + r.height, null);
+        } else {
+            drawScaled(g, image, scaled, target, r);
+        }
+        if (currentMetrics != null) {
+            currentMetrics.recordBlit(System.nanoTime() - blitStart);
+            this.dragPending.set(false);
+        }
+    }
+
+    /**
+     * Draw part of a downscaled copy of the image, with the same geometry as drawing the image itself
+     * @param g The graphics to paint on
+     * @param image The image
+     * @param scaled The downscaled copy
+     * @param target The target area
+     * @param r The visible rectangle, in image coordinates
+     */
+    private static void drawScaled(Graphics g, BufferedImage image, BufferedImage scaled, Rectangle target, Rectangle r) {
+        final double scaleX = scaled.getWidth() / (double) image.getWidth();
+        final double scaleY = scaled.getHeight() / (double) image.getHeight();
+        final AffineTransform transform = AffineTransform.getTranslateInstance(target.x, target.y);
+        transform.scale(target.width / (r.width * scaleX), target.height / (r.height * scaleY));
+        transform.translate(-r.x * scaleX, -r.y * scaleY);
+        final Graphics2D g2d = (Graphics2D) g.create();
+        try {
+            g2d.clip(target);
+            // The closest copy is less than twice as large as the target, so bilinear filtering is enough
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(scaled, transform, null);
+        } finally {
+            g2d.dispose();
+        }
+    }
+
+    @Override
+    public void componentResized(ComponentEvent e) {
+        this.component = e.getComponent();
+    }
+
+    @Override
+    public void componentShown(ComponentEvent e) {
+        this.component = e.getComponent();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The downscaled copies are dropped, since the display may show another image, or none, when it is shown again.
+     */
+    @Override
+    public void componentHidden(ComponentEvent e) {
+        this.scaledImages.clear();
+    }
+
+    private void repaint() {
+        final Component currentComponent = this.component;
+        if (currentComponent != null) {
+            GuiHelper.runInEDT(currentComponent::repaint);
+        }
+    }
+
+    @Override
+    public void mouseDragged(Point from, Point to, ImageDisplay.VisRect currentVisibleRect) {
+        IImageViewer.super.mouseDragged(from, to, currentVisibleRect);
+        final RenderMetrics currentMetrics = this.metrics;
+        if (currentMetrics != null && this.dragPending.getAndSet(true)) {
+            currentMetrics.recordDroppedFrame();
+        }
+    }
+
+    @Override
+    public RenderMetrics getRenderMetrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void setRenderMetrics(RenderMetrics metrics) {
+        this.metrics = metrics;
     }
 
     @Override
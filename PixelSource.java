@@ -0,0 +1,91 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+/**
+ * A source of packed ARGB pixels that can be sampled by texture coordinates
+ */
+interface PixelSource {
+    /**
+     * Get the width of the source
+     * @return The width in pixels
+     */
+    int getWidth();
+
+    /**
+     * Get the height of the source
+     * @return The height in pixels
+     */
+    int getHeight();
+
+    /**
+     * Get a pixel
+     * @param x The column of the pixel
+     * @param y The row of the pixel
+     * @return The packed ARGB pixel
+     */
+    int getPixel(int x, int y);
+
+    /**
+     * Sample the pixel closest to a texture coordinate
+     * @param u The horizontal coordinate, from 0 to 1
+     * @param v The vertical coordinate, from 0 to 1
+     * @return The packed ARGB pixel
+     */
+    default int sampleNearest(double u, double v) {
+        return getPixel((int) (u * (getWidth() - 1)), (int) (v * (getHeight() - 1)));
+    }
+
+    /**
+     * Interpolate between the four pixels closest to a texture coordinate.
+     * The source wraps around horizontally, as equirectangular images do.
+     * @param u The horizontal coordinate, from 0 to 1
+     * @param v The vertical coordinate, from 0 to 1
+     * @return The packed ARGB pixel
+     */
+    default int sampleBilinear(double u, double v) {
+        return sampleBilinear(u, v, true);
+    }
+
+    /**
+     * Interpolate between the four pixels closest to a texture coordinate
+     * @param u The horizontal coordinate, from 0 to 1
+     * @param v The vertical coordinate, from 0 to 1
+     * @param wrap {@code true} if the source wraps around horizontally, {@code false} to not blend the right edge
+     * with the left one, e.g. for partial panoramas
+     * @return The packed ARGB pixel
+     */
+    default int sampleBilinear(double u, double v, boolean wrap) {
+        final double x = u * (getWidth() - 1);
+        final double y = v * (getHeight() - 1);
+        final int x0 = (int) x;
+        final int y0 = (int) y;
+        final int x1 = x0 + 1 < getWidth() ? x0 + 1 : wrap ? 0 : x0;
+        final int y1 = y0 + 1 < getHeight() ? y0 + 1 : y0;
+        final int weightX = (int) ((x - x0) * 256);
+        return IntRaster.lerp(IntRaster.lerp(getPixel(x0, y0), getPixel(x1, y0), weightX),
+                IntRaster.lerp(getPixel(x0, y1), getPixel(x1, y1), weightX), (int) ((y - y0) * 256));
+    }
+
+    /**
+     * Sample a texture coordinate
+     * @param u The horizontal coordinate, from 0 to 1
+     * @param v The vertical coordinate, from 0 to 1
+     * @param quality The way to sample
+     * @return The packed ARGB pixel
+     */
+    default int sample(double u, double v, SamplingQuality quality) {
+        return quality == SamplingQuality.BILINEAR ? sampleBilinear(u, v) : sampleNearest(u, v);
+    }
+
+    /**
+     * Sample a texture coordinate
+     * @param u The horizontal coordinate, from 0 to 1
+     * @param v The vertical coordinate, from 0 to 1
+     * @param quality The way to sample
+     * @param wrap {@code true} if the source wraps around horizontally
+     * @return The packed ARGB pixel
+     */
+    default int sample(double u, double v, SamplingQuality quality, boolean wrap) {
+        return quality == SamplingQuality.BILINEAR ? sampleBilinear(u, v, wrap) : sampleNearest(u, v);
+    }
+}
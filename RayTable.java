@@ -0,0 +1,250 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.function.Function;
+
+import org.openstreetmap.josm.gui.util.imagery.CameraPlane;
+import org.openstreetmap.josm.gui.util.imagery.Vector3D;
+
+/**
+ * A rotation-independent table of the camera-space view ray of every pixel of a {@link CameraPlane}.
+ * <p>
+ * The rays only depend on the size of the viewport, so they are computed once when the viewer is resized.
+ * Each frame then only has to rotate them and look up the (u, v) coordinate on the sphere, see {@link SphericalKernel}.
+ * The components are stored as separate arrays (row major) so that the per-frame loop does not allocate: the rows
+ * it converts go through buffers that each mapping thread keeps, and that only grow when the viewport gets wider.
+ */
+final class RayTable {
+    /** The row buffers of each thread that maps bands, shared by all tables */
+    private static final ThreadLocal<RowBuffers> ROW_BUFFERS = ThreadLocal.withInitial(RowBuffers::new);
+
+    private final int width;
+    private final int height;
+    private final float[] rayX;
+    private final float[] rayY;
+    private final float[] rayZ;
+    private final double radiansPerPixel;
+
+    /**
+     * Create a new ray table
+     * @param cameraPlane The camera plane to read the rays from. It <i>must not</i> be rotated yet.
+     * @param width The width of the camera plane
+     * @param height The height of the camera plane
+     */
+    RayTable(CameraPlane cameraPlane, int width, int height) {
+        this(width, height, cameraPlane::getVector3D);
+    }
+
+    /**
+     * Create a new ray table for a field of view, without a camera plane. The rays are laid out like the rays of
+     * a {@link CameraPlane}: through the pixel grid of a plane at a distance in front of the camera.
+     * @param width The width of the viewport
+     * @param height The height of the viewport
+     * @param distance The distance of the plane, in pixels: half the width divided by the tangent of half the
+     * horizontal field of view
+     * @return The new ray table
+     */
+    static RayTable of(int width, int height, double distance) {
+        return new RayTable(width, height, point -> new Vector3D(point.x - width / 2d, point.y - height / 2d, distance));
+    }
+
+    private RayTable(int width, int height, Function<Point, Vector3D> rays) {
+        this.width = width;
+        this.height = height;
+        this.rayX = new float[width * height];
+        this.rayY = new float[width * height];
+        this.rayZ = new float[width * height];
+        final Point point = new Point();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                point.setLocation(x, y);
+                final Vector3D ray = rays.apply(point);
+                final double length = Math.sqrt(ray.getX() * ray.getX() + ray.getY() * ray.getY() + ray.getZ() * ray.getZ());
+                final int index = y * width + x;
+                this.rayX[index] = (float) (ray.getX() / length);
+                this.rayY[index] = (float) (ray.getY() / length);
+                this.rayZ[index] = (float) (ray.getZ() / length);
+            }
+        }
+        final int center = height / 2 * width + width / 2;
+        if (width > 1) {
+            final double dot = this.rayX[center] * this.rayX[center - 1] + this.rayY[center] * this.rayY[center - 1]
+                    + this.rayZ[center] * this.rayZ[center - 1];
+            this.radiansPerPixel = Math.acos(Math.min(1, dot));
+        } else {
+            this.radiansPerPixel = 0;
+        }
+    }
+
+    /**
+     * Get the width of the table
+     * @return The width in pixels
+     */
+    int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * Get the height of the table
+     * @return The height in pixels
+     */
+    int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Get the x components of the rays, row major
+     * @return The backing array, which must not be modified
+     */
+    float[] getRayX() {
+        return this.rayX;
+    }
+
+    /**
+     * Get the y components of the rays, row major
+     * @return The backing array, which must not be modified
+     */
+    float[] getRayY() {
+        return this.rayY;
+    }
+
+    /**
+     * Get the z components of the rays, row major
+     * @return The backing array, which must not be modified
+     */
+    float[] getRayZ() {
+        return this.rayZ;
+    }
+
+    /**
+     * Get the yaw of the ray of a pixel, as seen by a rotated camera
+     * @param x The column of the pixel, clamped to the table
+     * @param y The row of the pixel, clamped to the table
+     * @param r The rotation of the camera
+     * @return The angle of the rotated ray around the vertical axis, in radians
+     */
+    double getYaw(int x, int y, CameraRotation r) {
+        final int index = index(x, y);
+        final double rx = this.rayX[index];
+        final double ry = this.rayY[index];
+        final double rz = this.rayZ[index];
+        return Math.atan2(r.m00 * rx + r.m01 * ry + r.m02 * rz, r.m20 * rx + r.m21 * ry + r.m22 * rz);
+    }
+
+    /**
+     * Get the pitch of the ray of a pixel, as seen by a rotated camera
+     * @param x The column of the pixel, clamped to the table
+     * @param y The row of the pixel, clamped to the table
+     * @param r The rotation of the camera
+     * @return The angle of the rotated ray around the horizontal axis, in radians
+     */
+    double getPitch(int x, int y, CameraRotation r) {
+        final int index = index(x, y);
+        return Math.asin(Math.max(-1, Math.min(1, r.m11 * this.rayY[index] + r.m12 * this.rayZ[index])));
+    }
+
+    private int index(int x, int y) {
+        return Math.max(0, Math.min(this.height - 1, y)) * this.width + Math.max(0, Math.min(this.width - 1, x));
+    }
+
+    /**
+     * Get the angle between two adjacent pixels in the center of the table
+     * @return The angular size of a pixel, in radians
+     */
+    double getRadiansPerPixel() {
+        return this.radiansPerPixel;
+    }
+
+    /**
+     * Map the source image onto the target image
+     * @param source The equirectangular source image
+     * @param target The image to draw on
+     * @param visibleRect The part of the target image to map
+     * @param rotation The current rotation of the camera
+     * @param quality The way to sample the source image
+     */
+    void mapping(PixelSource source, IntRaster target, Rectangle visibleRect, Vector3D rotation, SamplingQuality quality) {
+        mapping(source, target, visibleRect, rotation, 1, quality, SphericalKernel.getDefault());
+    }
+
+    /**
+     * Map the source image onto a target image that is smaller than the table by an integer factor
+     * @param source The equirectangular source image
+     * @param target The image to draw on
+     * @param visibleRect The part of the target image to map, in target coordinates
+     * @param rotation The current rotation of the camera
+     * @param scale The pixel at (x, y) in the target uses the ray at (x * scale, y * scale)
+     * @param quality The way to sample the source image
+     * @param kernel The kernel that converts the rays to (u, v) coordinates
+     */
+    void mapping(PixelSource source, IntRaster target, Rectangle visibleRect, Vector3D rotation, int scale,
+            SamplingQuality quality, SphericalKernel kernel) {
+        final Rectangle clipped = visibleRect.intersection(new Rectangle(0, 0,
+                Math.min(ceilDiv(this.width, scale), target.getWidth()),
+                Math.min(ceilDiv(this.height, scale), target.getHeight())));
+        if (clipped.isEmpty()) {
+            return;
+        }
+        final CameraRotation r = CameraRotation.of(rotation);
+        final int[] targetData = target.getData();
+        // Whole rows of rays are converted at once, so that the kernel can process them in lanes
+        final RowBuffers buffers = ROW_BUFFERS.get().ensureCapacity(clipped.width);
+        final float[] u = buffers.u;
+        final float[] v = buffers.v;
+        // Reduced resolution rows are gathered first, since the kernel reads consecutive rays
+        final float[] rowX = scale == 1 ? this.rayX : buffers.x;
+        final float[] rowY = scale == 1 ? this.rayY : buffers.y;
+        final float[] rowZ = scale == 1 ? this.rayZ : buffers.z;
+        for (int y = clipped.y; y < clipped.y + clipped.height; y++) {
+            final int targetRow = target.getOffset() + y * target.getScanlineStride() + clipped.x;
+            final int rayRow = y * scale * this.width + clipped.x * scale;
+            if (scale == 1) {
+                kernel.toUV(rowX, rowY, rowZ, rayRow, clipped.width, r, u, v);
+            } else {
+                for (int i = 0; i < clipped.width; i++) {
+                    rowX[i] = this.rayX[rayRow + i * scale];
+                    rowY[i] = this.rayY[rayRow + i * scale];
+                    rowZ[i] = this.rayZ[rayRow + i * scale];
+                }
+                kernel.toUV(rowX, rowY, rowZ, 0, clipped.width, r, u, v);
+            }
+            for (int i = 0; i < clipped.width; i++) {
+                targetData[targetRow + i] = source.sample(u[i], v[i], quality);
+            }
+        }
+    }
+
+    /**
+     * Divide and round up
+     * @param dividend The dividend, must not be negative
+     * @param divisor The divisor, must be positive
+     * @return The rounded up quotient
+     */
+    static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    /**
+     * The buffers one thread converts rows of rays with. They may be longer than the rows.
+     */
+    private static final class RowBuffers {
+        private float[] u = new float[0];
+        private float[] v = new float[0];
+        private float[] x = new float[0];
+        private float[] y = new float[0];
+        private float[] z = new float[0];
+
+        RowBuffers ensureCapacity(int length) {
+            if (this.u.length < length) {
+                this.u = new float[length];
+                this.v = new float[length];
+                this.x = new float[length];
+                this.y = new float[length];
+                this.z = new float[length];
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Per-frame timings and counters of an image viewer, to attach numbers to slowness reports.
+ * <p>
+ * Viewers only record metrics when they have a metrics object, see {@link IImageViewer#setRenderMetrics}.
+ * They create one themselves when the {@code geoimage.viewer.metrics} preference is set. Without one,
+ * they do not even read the clock.
+ * @since xxx
+ */
+public final class RenderMetrics {
+    /** Whether viewers record metrics from the start */
+    public static final BooleanProperty ENABLED = new BooleanProperty("geoimage.viewer.metrics", false);
+    /** The number of frames the timing histograms keep */
+    static final int WINDOW = 1024;
+
+    private final Histogram remapTime = new Histogram();
+    private final Histogram blitTime = new Histogram();
+    private final AtomicLong bufferAllocations = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    /**
+     * Create new metrics if they are enabled in the preferences
+     * @return The metrics, or {@code null} if they are disabled
+     */
+    static RenderMetrics createIfEnabled() {
+        return ENABLED.get() ? new RenderMetrics() : null;
+    }
+
+    /**
+     * Record the time it took to map a frame from the source image
+     * @param nanos The time in nanoseconds
+     */
+    public void recordRemap(long nanos) {
+        this.remapTime.record(nanos);
+    }
+
+    /**
+     * Record the time it took to draw a frame on the screen
+     * @param nanos The time in nanoseconds
+     */
+    public void recordBlit(long nanos) {
+        this.blitTime.record(nanos);
+    }
+
+    /**
+     * Record buffer allocations
+     * @param count The number of buffers that were allocated
+     */
+    public void recordBufferAllocations(long count) {
+        this.bufferAllocations.addAndGet(count);
+    }
+
+    /**
+     * Record a drag step that was superseded by the next one before it was painted
+     */
+    public void recordDroppedFrame() {
+        this.droppedFrames.incrementAndGet();
+    }
+
+    /**
+     * Get the times it took to map the last frames
+     * @return The remap histogram
+     */
+    public Histogram getRemapTime() {
+        return this.remapTime;
+    }
+
+    /**
+     * Get the times it took to draw the last frames
+     * @return The blit histogram
+     */
+    public Histogram getBlitTime() {
+        return this.blitTime;
+    }
+
+    /**
+     * Get the number of buffers allocated since the metrics were created
+     * @return The number of allocations
+     */
+    public long getBufferAllocations() {
+        return this.bufferAllocations.get();
+    }
+
+    /**
+     * Get the number of drag steps that were never painted since the metrics were created
+     * @return The number of dropped frames
+     */
+    public long getDroppedFrames() {
+        return this.droppedFrames.get();
+    }
+
+    /**
+     * Write the metrics to the log
+     * @param viewer The name of the viewer, for the log message
+     */
+    public void dump(String viewer) {
+        Logging.info("Render metrics of {0}: {1}", viewer, this);
+    }
+
+    @Override
+    public String toString() {
+        return "remap " + this.remapTime + ", blit " + this.blitTime + ", buffer allocations " + getBufferAllocations()
+                + ", dropped frames " + getDroppedFrames();
+    }
+
+    /**
+     * A rolling histogram of the last {@value RenderMetrics#WINDOW} durations.
+     * Recording is lock free; reading sorts a copy of the window.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+        private final AtomicLong count = new AtomicLong();
+
+        Histogram() {
+            // Created by RenderMetrics
+        }
+
+        void record(long nanos) {
+            this.samples.set((int) (this.count.getAndIncrement() % WINDOW), nanos);
+        }
+
+        /**
+         * Get the number of durations recorded since the histogram was created
+         * @return The total count, which may be more than the window
+         */
+        public long getCount() {
+            return this.count.get();
+        }
+
+        /**
+         * Get a percentile of the durations in the window
+         * @param percentile The percentile, from 0 to 100
+         * @return The duration in nanoseconds, or {@code 0} if nothing was recorded yet
+         */
+        public long getPercentile(double percentile) {
+            final long[] sorted = getSortedWindow();
+            if (sorted.length == 0) {
+                return 0;
+            }
+            final int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        private long[] getSortedWindow() {
+            final long[] sorted = new long[(int) Math.min(WINDOW, this.count.get())];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = this.samples.get(i);
+            }
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        @Override
+        public String toString() {
+            final long[] sorted = getSortedWindow();
+            if (sorted.length == 0) {
+                return "no frames";
+            }
+            return String.format("%d frames, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms", getCount(),
+                    sorted[(sorted.length - 1) / 2] / 1e6, sorted[(int) Math.ceil(0.9 * sorted.length) - 1] / 1e6,
+                    sorted[(int) Math.ceil(0.99 * sorted.length) - 1] / 1e6, sorted[sorted.length - 1] / 1e6);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+
+import org.openstreetmap.josm.gui.util.imagery.CameraPlane;
+import org.openstreetmap.josm.gui.util.imagery.Vector3D;
+
+/**
+ * An immutable snapshot of everything a viewer needs to render a frame: the camera plane and its rays, the
+ * buffers to render into, the rotation, and a version.
+ * <p>
+ * Snapshots are published through an {@link java.util.concurrent.atomic.AtomicReference AtomicReference}, and every
+ * change creates a new snapshot with a higher version. Painting, dragging, resizing and background threads
+ * therefore always see a consistent state without taking a lock, and a frame can be reused as long as the
+ * version has not changed.
+ */
+final class RenderState {
+    /** The state before the viewer has been sized */
+    static final RenderState INITIAL = new RenderState(null, null, null, null, null, 1, 0, 0, 0);
+    /** The pitch is kept just short of the poles, where the yaw is undefined */
+    private static final double MAXIMUM_PITCH = Math.PI / 2 - 1e-6;
+
+    private final CameraPlane cameraPlane;
+    private final RayTable rayTable;
+    private final BufferedImage offscreenImage;
+    private final IntRaster offscreenRaster;
+    private final IntRaster previewRaster;
+    private final int previewScale;
+    private final double yaw;
+    private final double pitch;
+    private final Vector3D rotation;
+    private final long version;
+
+    private RenderState(CameraPlane cameraPlane, RayTable rayTable, BufferedImage offscreenImage, IntRaster offscreenRaster,
+            IntRaster previewRaster, int previewScale, double yaw, double pitch, long version) {
+        this.cameraPlane = cameraPlane;
+        this.rayTable = rayTable;
+        this.offscreenImage = offscreenImage;
+        this.offscreenRaster = offscreenRaster;
+        this.previewRaster = previewRaster;
+        this.previewScale = previewScale;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.rotation = new Vector3D(Vector3D.VectorType.RPA, 1, yaw, pitch);
+        this.version = version;
+    }
+
+    /**
+     * Get a copy of this state for a new viewport, with the same rotation
+     * @param newCameraPlane The camera plane of the viewport. It must not be rotated yet.
+     * @param newRayTable The rays of the camera plane
+     * @param newOffscreenImage The image to render into
+     * @param newPreviewRaster The reduced resolution image to render into while dragging, may be {@code null}
+     * @param newPreviewScale The factor by which the resolution of the preview is reduced
+     * @return The new state
+     */
+    RenderState withViewport(CameraPlane newCameraPlane, RayTable newRayTable, BufferedImage newOffscreenImage,
+            IntRaster newPreviewRaster, int newPreviewScale) {
+        return new RenderState(newCameraPlane, newRayTable, newOffscreenImage, IntRaster.of(newOffscreenImage),
+                newPreviewRaster, newPreviewScale, this.yaw, this.pitch, this.version + 1);
+    }
+
+    /**
+     * Get a copy of this state, rotated so that the direction under one point of the viewport moves to another
+     * @param from The point the mouse was dragged from
+     * @param to The point the mouse has been dragged to
+     * @return The new state, or this state if the viewer has not been sized yet
+     */
+    RenderState withRotationFromDelta(Point from, Point to) {
+        if (this.rayTable == null) {
+            return this;
+        }
+        // Like CameraPlane#setRotationFromDelta, take the angles of the rays as they are drawn now: the angles of
+        // the unrotated rays differ from those at any pitch other than 0
+        final CameraRotation r = CameraRotation.of(this.rotation);
+        final double newYaw = this.yaw + this.rayTable.getYaw(from.x, from.y, r) - this.rayTable.getYaw(to.x, to.y, r);
+        final double newPitch = this.pitch + this.rayTable.getPitch(from.x, from.y, r)
+                - this.rayTable.getPitch(to.x, to.y, r);
+        return withRotation(newYaw, newPitch);
+    }
+
+    /**
+     * Get a copy of this state with another rotation
+     * @param newYaw The rotation around the vertical axis, in radians
+     * @param newPitch The rotation around the horizontal axis, in radians. This is clamped to the poles.
+     * @return The new state
+     */
+    RenderState withRotation(double newYaw, double newPitch) {
+        return new RenderState(this.cameraPlane, this.rayTable, this.offscreenImage, this.offscreenRaster,
+                this.previewRaster, this.previewScale, newYaw, Math.max(-MAXIMUM_PITCH, Math.min(MAXIMUM_PITCH, newPitch)),
+                this.version + 1);
+    }
+
+    /**
+     * Get a copy of this state with a higher version, e.g. because a setting that changes the frame has changed
+     * @return The new state
+     */
+    RenderState nextVersion() {
+        return new RenderState(this.cameraPlane, this.rayTable, this.offscreenImage, this.offscreenRaster,
+                this.previewRaster, this.previewScale, this.yaw, this.pitch, this.version + 1);
+    }
+
+    /**
+     * Get the camera plane. Its own rotation is not kept up to date: it is only rotated, while locked,
+     * by the {@link Equirectangular.MappingMode#CAMERA_PLANE} mode.
+     * @return The camera plane, or {@code null} if the viewer has not been sized yet
+     */
+    CameraPlane getCameraPlane() {
+        return this.cameraPlane;
+    }
+
+    /**
+     * Get the rays of the viewport
+     * @return The ray table, or {@code null} if the viewer has not been sized yet
+     */
+    RayTable getRayTable() {
+        return this.rayTable;
+    }
+
+    /**
+     * Get the full resolution image to render into
+     * @return The offscreen image, or {@code null} if the viewer has not been sized yet
+     */
+    BufferedImage getOffscreenImage() {
+        return this.offscreenImage;
+    }
+
+    /**
+     * Get the pixels of the offscreen image
+     * @return The offscreen raster, or {@code null} if the viewer has not been sized yet
+     */
+    IntRaster getOffscreenRaster() {
+        return this.offscreenRaster;
+    }
+
+    /**
+     * Get the reduced resolution image to render into while dragging
+     * @return The preview raster, or {@code null} if previews are disabled
+     */
+    IntRaster getPreviewRaster() {
+        return this.previewRaster;
+    }
+
+    /**
+     * Get the factor by which the resolution of the preview is reduced
+     * @return The preview scale
+     */
+    int getPreviewScale() {
+        return this.previewScale;
+    }
+
+    /**
+     * Get the rotation around the vertical axis
+     * @return The yaw, in radians
+     */
+    double getYaw() {
+        return this.yaw;
+    }
+
+    /**
+     * Get the rotation around the horizontal axis
+     * @return The pitch, in radians
+     */
+    double getPitch() {
+        return this.pitch;
+    }
+
+    /**
+     * Get the rotation as a vector, with the yaw as its polar angle and the pitch as its azimuthal angle
+     * @return The rotation
+     */
+    Vector3D getRotation() {
+        return this.rotation;
+    }
+
+    /**
+     * Get the version of this state
+     * @return The version, which is higher for every later state of the same viewer
+     */
+    long getVersion() {
+        return this.version;
+    }
+}
@@ -0,0 +1,38 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * The state an offscreen image was rendered for, so that a viewer can skip the remap when painting it again
+ */
+final class RenderedFrame {
+    private final long version;
+    /** This is only compared by identity */
+    private final BufferedImage image;
+    private final Rectangle visibleRect;
+
+    /**
+     * Create a new rendered frame
+     * @param version The version of the viewer state the frame was rendered for
+     * @param image The source image
+     * @param visibleRect The visible rectangle. It is copied.
+     */
+    RenderedFrame(long version, BufferedImage image, Rectangle visibleRect) {
+        this.version = version;
+        this.image = image;
+        this.visibleRect = new Rectangle(visibleRect);
+    }
+
+    /**
+     * Check if the frame is still up to date
+     * @param currentVersion The current version of the viewer state
+     * @param currentImage The source image to paint
+     * @param currentVisibleRect The visible rectangle to paint
+     * @return {@code true} if the offscreen image already shows this
+     */
+    boolean isRendered(long currentVersion, BufferedImage currentImage, Rectangle currentVisibleRect) {
+        return this.version == currentVersion && this.image == currentImage && this.visibleRect.equals(currentVisibleRect);
+    }
+}
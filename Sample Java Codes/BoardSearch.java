@@ -0,0 +1,323 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The depth-first search over a Boggle board that both the AutoPlayer and
+ * the WordOnBoardFinder use.
+ *
+ * Cells are numbered row by row (cell = row * size + col). The neighbours of
+ * every cell are computed once per board size and shared, the visited cells
+ * are one bit each (in a single long up to 8x8, in a long array above), the
+ * faces of the current path go into one reused buffer, and the cells of a
+ * found word into one reused int array. So a search allocates nothing while
+ * it runs, apart from the words it emits, and a step costs the same however
+ * long the path is.
+ *
+ * A BoardSearch is not thread safe. Use one per thread; setBoard lets a
+ * thread reuse its BoardSearch for many boards.
+ *
+ * @author Cynthia Fan
+ */
+public class BoardSearch {
+
+	private static final int ALPHABET = 26;
+	/** The index bucket of faces that do not start with a letter a-z. */
+	private static final int OTHER = ALPHABET;
+
+	/** The neighbour lists of every board size that has been searched. */
+	private static final Map<Integer, int[][]> ourNeighbors = new ConcurrentHashMap<Integer, int[][]>();
+
+	private int mySize;
+	/** The face of every cell. */
+	private String[] myFaces;
+	private int[][] myNeighbors;
+	/** The visited cells of boards up to 8x8, bit n for cell n. */
+	private long myVisitedBits;
+	/** The visited cells of larger boards, bit n % 64 of entry n / 64 for cell n; null up to 8x8. */
+	private long[] myVisitedSet;
+	/** The faces of the current path, for lexicons that are not tries. */
+	private final StringBuilder myPath = new StringBuilder();
+	/** The cells of the last word found by findCells. */
+	private int[] myCells;
+	private int myCellCount;
+	/**
+	 * The cells sorted by the first letter of their face: the cells of letter n are
+	 * myCellsByLetter[myLetterStart[n]] up to myCellsByLetter[myLetterStart[n + 1] - 1].
+	 */
+	private int[] myCellsByLetter;
+	private final int[] myLetterStart = new int[ALPHABET + 2];
+	/** The next free position of each letter while the cells are sorted. */
+	private final int[] myLetterNext = new int[ALPHABET + 1];
+	/** Whether the index is out of date; it is only built when findCells needs it. */
+	private boolean myIndexStale;
+	/** How often each letter a-z appears on the board, counting both letters of "qu". */
+	private final int[] myLetterCounts = new int[ALPHABET];
+	/** How often each letter appears in the word being checked by findCells. */
+	private final int[] myWordCounts = new int[ALPHABET];
+
+	/**
+	 * Creates a search over a board.
+	 * @param board - the board to search
+	 */
+	public BoardSearch(BoggleBoard board) {
+		setBoard(board);
+	}
+
+	/**
+	 * Switches to another board. The buffers are only reallocated if the size changes.
+	 * @param board - the board to search from now on
+	 */
+	public void setBoard(BoggleBoard board) {
+		if (myFaces == null || board.size() != mySize) {
+			mySize = board.size();
+			myFaces = new String[mySize * mySize];
+			myNeighbors = neighbors(mySize);
+			myVisitedSet = mySize * mySize > Long.SIZE ? new long[(mySize * mySize + Long.SIZE - 1) / Long.SIZE] : null;
+			myCells = new int[mySize * mySize];
+			myCellsByLetter = new int[mySize * mySize];
+		}
+		for (int r = 0; r < mySize; r++) {
+			for (int c = 0; c < mySize; c++) {
+				myFaces[r * mySize + c] = board.getFace(r, c);
+			}
+		}
+		myCellCount = 0;
+		myIndexStale = true;
+	}
+
+	/** Counts the letters of the board and sorts the cells by the first letter of their face. */
+	private void indexFaces() {
+		Arrays.fill(myLetterStart, 0);
+		Arrays.fill(myLetterCounts, 0);
+		for (String face : myFaces) {
+			myLetterStart[bucket(face) + 1]++;
+			for (int i = 0; i < face.length(); i++) {
+				char ch = face.charAt(i);
+				if (ch >= 'a' && ch <= 'z') {
+					myLetterCounts[ch - 'a']++;
+				}
+			}
+		}
+		for (int letter = 0; letter <= OTHER; letter++) {
+			myLetterStart[letter + 1] += myLetterStart[letter];
+		}
+		// counting sort; the cells of a bucket stay in row major order
+		System.arraycopy(myLetterStart, 0, myLetterNext, 0, OTHER + 1);
+		for (int cell = 0; cell < myFaces.length; cell++) {
+			myCellsByLetter[myLetterNext[bucket(myFaces[cell])]++] = cell;
+		}
+		myIndexStale = false;
+	}
+
+	/** Returns the index bucket of a face or word: its first letter, or OTHER. */
+	private static int bucket(String s) {
+		char ch = s.isEmpty() ? 0 : s.charAt(0);
+		return ch >= 'a' && ch <= 'z' ? ch - 'a' : OTHER;
+	}
+
+	/**
+	 * Returns the neighbours of every cell of a board, in row major order.
+	 * @param size - the number of rows (and columns) of the board
+	 * @return for each cell, the cells next to it, diagonals included
+	 */
+	public static int[][] neighbors(int size) {
+		int[][] neighbors = ourNeighbors.get(size);
+		if (neighbors == null) {
+			neighbors = new int[size * size][];
+			for (int r = 0; r < size; r++) {
+				for (int c = 0; c < size; c++) {
+					int count = 0;
+					int[] cells = new int[8];
+					for (int row = Math.max(0, r - 1); row <= Math.min(size - 1, r + 1); row++) {
+						for (int col = Math.max(0, c - 1); col <= Math.min(size - 1, c + 1); col++) {
+							if (row != r || col != c) {
+								cells[count++] = row * size + col;
+							}
+						}
+					}
+					neighbors[r * size + c] = Arrays.copyOf(cells, count);
+				}
+			}
+			ourNeighbors.putIfAbsent(size, neighbors);
+		}
+		return neighbors;
+	}
+
+	/**
+	 * Adds every word of the lexicon that can be formed on the board, once per path
+	 * that forms it, in the order of the starting cells.
+	 * @param lex - the lexicon; a TrieLexicon is walked with a cursor instead of
+	 * looking up every prefix
+	 * @param words - the collection to add the words to
+	 */
+	public void findAllWords(ILexicon lex, Collection<String> words) {
+		findWords(lex, 0, myFaces.length, words);
+	}
+
+	/**
+	 * Adds the words that start at a range of cells, once per path that forms them.
+	 * @param lex - the lexicon
+	 * @param fromCell - the first starting cell
+	 * @param toCell - the cell after the last starting cell
+	 * @param words - the collection to add the words to
+	 */
+	public void findWords(ILexicon lex, int fromCell, int toCell, Collection<String> words) {
+		if (lex instanceof TrieLexicon) {
+			TrieLexicon.Cursor cursor = ((TrieLexicon) lex).cursor();
+			for (int cell = fromCell; cell < toCell; cell++) {
+				findWords(cursor, cell, words);
+			}
+		}
+		else {
+			for (int cell = fromCell; cell < toCell; cell++) {
+				myPath.setLength(0);
+				findWords(lex, cell, words);
+			}
+		}
+	}
+
+	private void findWords(TrieLexicon.Cursor cursor, int cell, Collection<String> words) {
+		LexStatus status = cursor.advance(myFaces[cell]);
+		if (status == LexStatus.WORD) {
+			words.add(cursor.getWord());
+		}
+		if (status != LexStatus.NOT_WORD) {
+			visit(cell);
+			for (int next : myNeighbors[cell]) {
+				if (!isVisited(next)) {
+					findWords(cursor, next, words);
+				}
+			}
+			leave(cell);
+		}
+		cursor.retreat();
+	}
+
+	private void findWords(ILexicon lex, int cell, Collection<String> words) {
+		int length = myPath.length();
+		myPath.append(myFaces[cell]);
+		LexStatus status = lex.wordStatus(myPath);
+		if (status == LexStatus.WORD) {
+			words.add(myPath.toString());
+		}
+		if (status != LexStatus.NOT_WORD) {
+			visit(cell);
+			for (int next : myNeighbors[cell]) {
+				if (!isVisited(next)) {
+					findWords(lex, next, words);
+				}
+			}
+			leave(cell);
+		}
+		myPath.setLength(length);
+	}
+
+	/**
+	 * Looks for a path of cells whose faces spell a word. Use getCellCount and
+	 * getCell to read the path.
+	 * @param word - the word to look for
+	 * @return true if the word is on the board
+	 */
+	public boolean findCells(String word) {
+		myCellCount = 0;
+		if (word.isEmpty()) {
+			return true;
+		}
+		// boards that are only solved never need the index
+		if (myIndexStale) {
+			indexFaces();
+		}
+		if (!hasLetters(word)) {
+			return false;
+		}
+		// only cells whose face starts like the word can start it
+		int bucket = bucket(word);
+		for (int i = myLetterStart[bucket]; i < myLetterStart[bucket + 1]; i++) {
+			if (findCells(word, 0, myCellsByLetter[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks that the board has at least as many of each letter a-z as the word.
+	 * @param word - the word to check
+	 * @return false if the word cannot be on the board
+	 */
+	private boolean hasLetters(String word) {
+		Arrays.fill(myWordCounts, 0);
+		for (int i = 0; i < word.length(); i++) {
+			char ch = word.charAt(i);
+			if (ch >= 'a' && ch <= 'z' && ++myWordCounts[ch - 'a'] > myLetterCounts[ch - 'a']) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean findCells(String word, int index, int cell) {
+		String face = myFaces[cell];
+		if (!word.startsWith(face, index)) {
+			return false;
+		}
+		myCells[myCellCount++] = cell;
+		if (index + face.length() == word.length()) {
+			return true;
+		}
+		visit(cell);
+		for (int next : myNeighbors[cell]) {
+			if (!isVisited(next) && findCells(word, index + face.length(), next)) {
+				leave(cell);
+				return true;
+			}
+		}
+		leave(cell);
+		myCellCount--;
+		return false;
+	}
+
+	private boolean isVisited(int cell) {
+		// shifts of a long only use the low 6 bits of the distance, so 1L << cell is bit cell % 64
+		if (myVisitedSet == null) {
+			return (myVisitedBits & 1L << cell) != 0;
+		}
+		return (myVisitedSet[cell >>> 6] & 1L << cell) != 0;
+	}
+
+	private void visit(int cell) {
+		if (myVisitedSet == null) {
+			myVisitedBits |= 1L << cell;
+		}
+		else {
+			myVisitedSet[cell >>> 6] |= 1L << cell;
+		}
+	}
+
+	private void leave(int cell) {
+		if (myVisitedSet == null) {
+			myVisitedBits &= ~(1L << cell);
+		}
+		else {
+			myVisitedSet[cell >>> 6] &= ~(1L << cell);
+		}
+	}
+
+	/** Returns the number of cells of the last word found by findCells. */
+	public int getCellCount() {
+		return myCellCount;
+	}
+
+	/**
+	 * Returns a cell of the last word found by findCells.
+	 * @param i - the position in the word, from 0 to getCellCount() - 1
+	 * @return the cell, numbered row * size + col
+	 */
+	public int getCell(int i) {
+		return myCells[i];
+	}
+
+	/** Returns the number of rows (and columns) of the board. */
+	public int size() {
+		return mySize;
+	}
+}
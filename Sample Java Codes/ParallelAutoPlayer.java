@@ -0,0 +1,141 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** An AutoPlayer that solves boards on several threads with fork-join tasks.
+ *
+ * A single board is split by starting cells: each task searches a group of
+ * starting cells with the BoardSearch of its thread (so its own visited cells)
+ * and its own list of words, and the lists are merged when the tasks join. A
+ * batch of boards is solved one board per task instead, which keeps every core
+ * busy without splitting small boards. A task never forks or joins while it
+ * searches, so a thread only runs one search at a time and can keep reusing
+ * its BoardSearch with setBoard.
+ *
+ * Unlike AutoPlayer, every word is only returned once, in the order in which
+ * AutoPlayer finds it first. The lexicon is only read, so one lexicon can be
+ * shared by all threads.
+ *
+ * @author Cynthia Fan
+ */
+public class ParallelAutoPlayer extends AbstractAutoPlayer {
+
+	/** Each core gets about this many tasks per board, to even out the cells with long searches. */
+	private static final int TASKS_PER_THREAD = 4;
+
+	/** The search of each thread that runs tasks, switched to the board of every task it runs. */
+	private static final ThreadLocal<BoardSearch> ourSearches = new ThreadLocal<BoardSearch>();
+
+	private final ForkJoinPool myPool;
+
+	/** Creates a player that uses the common fork-join pool. */
+	public ParallelAutoPlayer() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a player that runs its tasks in a pool.
+	 * @param pool - the pool to solve in
+	 */
+	public ParallelAutoPlayer(ForkJoinPool pool) {
+		myPool = pool;
+	}
+
+	public List<String> findAllValidWords(BoggleBoard board, ILexicon lex) {
+		int cells = board.size() * board.size();
+		int grain = Math.max(1, cells / (myPool.getParallelism() * TASKS_PER_THREAD));
+		return new ArrayList<String>(myPool.invoke(new CellsTask(board, lex, 0, cells, grain)));
+	}
+
+	/**
+	 * Solves many boards at once, one board per task.
+	 * @param boards - the boards to solve
+	 * @param lex - the lexicon to use for all boards
+	 * @return the words of each board, in the same order as the boards
+	 */
+	public List<List<String>> findAllValidWords(List<BoggleBoard> boards, ILexicon lex) {
+		List<BoardTask> tasks = new ArrayList<BoardTask>(boards.size());
+		for (BoggleBoard board : boards) {
+			BoardTask task = new BoardTask(board, lex);
+			myPool.execute(task);
+			tasks.add(task);
+		}
+		List<List<String>> results = new ArrayList<List<String>>(boards.size());
+		for (BoardTask task : tasks) {
+			results.add(task.join());
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the search of the current thread, switched to a board.
+	 * @param board - the board to search
+	 * @return the search, only to be used by the current thread
+	 */
+	private static BoardSearch searchFor(BoggleBoard board) {
+		BoardSearch search = ourSearches.get();
+		if (search == null) {
+			search = new BoardSearch(board);
+			ourSearches.set(search);
+		}
+		else {
+			search.setBoard(board);
+		}
+		return search;
+	}
+
+	/** Searches a range of starting cells, splitting it in half until it is small enough. */
+	private static class CellsTask extends RecursiveTask<Set<String>> {
+		private static final long serialVersionUID = 1L;
+
+		private final BoggleBoard myBoard;
+		private final ILexicon myLexicon;
+		private final int myFrom;
+		private final int myTo;
+		private final int myGrain;
+
+		CellsTask(BoggleBoard board, ILexicon lex, int from, int to, int grain) {
+			myBoard = board;
+			myLexicon = lex;
+			myFrom = from;
+			myTo = to;
+			myGrain = grain;
+		}
+
+		@Override
+		protected Set<String> compute() {
+			if (myTo - myFrom <= myGrain) {
+				Set<String> words = new LinkedHashSet<String>();
+				searchFor(myBoard).findWords(myLexicon, myFrom, myTo, words);
+				return words;
+			}
+			int middle = (myFrom + myTo) >>> 1;
+			CellsTask right = new CellsTask(myBoard, myLexicon, middle, myTo, myGrain);
+			right.fork();
+			Set<String> words = new CellsTask(myBoard, myLexicon, myFrom, middle, myGrain).compute();
+			// the left cells come first, so their words keep their place
+			words.addAll(right.join());
+			return words;
+		}
+	}
+
+	/** Solves one board of a batch on one thread. */
+	private static class BoardTask extends RecursiveTask<List<String>> {
+		private static final long serialVersionUID = 1L;
+
+		private final BoggleBoard myBoard;
+		private final ILexicon myLexicon;
+
+		BoardTask(BoggleBoard board, ILexicon lex) {
+			myBoard = board;
+			myLexicon = lex;
+		}
+
+		@Override
+		protected List<String> compute() {
+			Set<String> words = new LinkedHashSet<String>();
+			searchFor(myBoard).findAllWords(myLexicon, words);
+			return new ArrayList<String>(words);
+		}
+	}
+}
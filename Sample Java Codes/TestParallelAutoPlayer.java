@@ -0,0 +1,179 @@
+/** Tester program for verifying that the ParallelAutoPlayer finds the same
+  * words as the AutoPlayer, both for single boards and for batches of boards.
+  *
+  * @author Cynthia Fan
+  */
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class TestParallelAutoPlayer {
+
+    /** The letters random boards are made of, about as often as on Boggle dice. */
+    private static final String LETTERS = "eeeeeeaaaaiiioooussttttrrnnnlldcmbpghkqwyfv";
+
+    /** Main tester method. */
+    public static void main(String[] args) {
+        // Here's the board from TestWordFinder:
+        // A T R U
+        // S Qu A N
+        // N I O T
+        // B D E N
+        String[] small = {"atru",
+            "sqan",
+            "niot",
+            "bden"};
+
+        // Boards above 8x8 keep their visited cells in more than one long,
+        // so the larger boards check that case too.
+        Random random = new Random(42);
+        List<BoggleBoard> boards = new ArrayList<BoggleBoard>();
+        boards.add(makeBoard(small));
+        boards.add(makeBoard(randomTiles(random, 5)));
+        boards.add(makeBoard(randomTiles(random, 8)));
+        boards.add(makeBoard(randomTiles(random, 9)));
+        boards.add(makeBoard(randomTiles(random, 12)));
+
+        ILexicon lex = makeLexicon(boards, random);
+        System.out.println("\nTesting with " + lex.size() + " words");
+
+        // More threads than most test machines have cores, so that every
+        // board is split and tasks are stolen
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelAutoPlayer parallel = new ParallelAutoPlayer(pool);
+            AutoPlayer serial = new AutoPlayer();
+
+            for (BoggleBoard board : boards) {
+                System.out.print("Testing a " + board.size() + "x" + board.size() + " board");
+                report(serial.findAllValidWords(board, lex), parallel.findAllValidWords(board, lex));
+            }
+
+            List<List<String>> batch = parallel.findAllValidWords(boards, lex);
+            for (int i = 0; i < boards.size(); i++) {
+                BoggleBoard board = boards.get(i);
+                System.out.print("Testing the " + board.size() + "x" + board.size() + " board in a batch");
+                report(serial.findAllValidWords(board, lex), batch.get(i));
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+
+    /** Prints whether the parallel player found the words of the serial one,
+      * each word once, in the order in which the serial player finds it first.
+      *
+      * @param serial the words the AutoPlayer found.
+      * @param parallel the words the ParallelAutoPlayer found.
+      */
+    private static void report(List<String> serial, List<String> parallel) {
+        List<String> expected = unique(serial);
+        if (expected.equals(parallel)) {
+            System.out.println("..." + parallel.size() + " words, passed!");
+        }
+        else {
+            // the lists are long, so only show where they start to differ
+            int i = 0;
+            while (i < expected.size() && i < parallel.size() && expected.get(i).equals(parallel.get(i))) {
+                i++;
+            }
+            System.out.println("...failed! Expected " + expected.size() + " words, instead got "
+                                 + parallel.size() + "; word " + i + " is "
+                                 + (i < expected.size() ? expected.get(i) : "missing") + " instead of "
+                                 + (i < parallel.size() ? parallel.get(i) : "missing"));
+        }
+    }
+
+
+    /** Returns the words of a list without repetitions, in order of first appearance. */
+    private static List<String> unique(List<String> words) {
+        return new ArrayList<String>(new LinkedHashSet<String>(words));
+    }
+
+
+    /** Returns the rows of a random board.
+      *
+      * @param random the source of the letters.
+      * @param size the number of rows (and columns).
+      *
+      * @return the rows, with 'q' for a "qu" tile.
+      */
+    private static String[] randomTiles(Random random, int size) {
+        String[] tiles = new String[size];
+        for (int i = 0; i < size; i++) {
+            String row = "";
+            for (int j = 0; j < size; j++) {
+                row += LETTERS.charAt(random.nextInt(LETTERS.length()));
+            }
+            tiles[i] = row;
+        }
+        return tiles;
+    }
+
+
+    /* Makes a BoggleBoard from its rows, like TestWordFinder does.
+     *
+     * @param tiles the rows of the board, with 'q' for a "qu" tile.
+     *
+     * @return the BoggleBoard.
+     */
+    private static BoggleBoard makeBoard(String[] tiles) {
+        String[] faces = new String[tiles.length * tiles.length];
+        int count = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            for (int j = 0; j < tiles[i].length(); j++) {
+                if (tiles[i].charAt(j) != 'q') {
+                    faces[count++] = "" + tiles[i].charAt(j);
+                }
+                else {
+                    faces[count++] = "qu";
+                }
+            }
+        }
+
+        return new BoggleBoard(faces);
+    }
+
+
+    /** Makes a lexicon with some words that are on the boards and many that
+      * are not: the faces along random paths of every board, their prefixes
+      * and some random strings.
+      *
+      * @param boards the boards to take paths from.
+      * @param random the source of the paths and strings.
+      *
+      * @return the lexicon.
+      */
+    private static ILexicon makeLexicon(List<BoggleBoard> boards, Random random) {
+        ArrayList<String> words = new ArrayList<String>(Arrays.asList(
+            "ted", "quant", "run", "tant", "need", "quotient", "doing", "bided"));
+        for (BoggleBoard board : boards) {
+            int size = board.size();
+            for (int path = 0; path < 200; path++) {
+                // a random walk that may cross itself, so some of the words
+                // are not on the board
+                int row = random.nextInt(size);
+                int col = random.nextInt(size);
+                String word = "";
+                int length = 2 + random.nextInt(7);
+                for (int i = 0; i < length; i++) {
+                    word += board.getFace(row, col);
+                    row = Math.max(0, Math.min(size - 1, row + random.nextInt(3) - 1));
+                    col = Math.max(0, Math.min(size - 1, col + random.nextInt(3) - 1));
+                    if (word.length() >= 3) {
+                        words.add(word);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            words.add(randomTiles(random, 1)[0] + randomTiles(random, 1)[0] + randomTiles(random, 1)[0]);
+        }
+        TrieLexicon lex = new TrieLexicon();
+        lex.load(words);
+        return lex;
+    }
+
+}
@@ -0,0 +1,200 @@
+import java.util.*;
+
+/** A lexicon stored as a trie, with a cursor that walks the trie one board
+ * face at a time.
+ *
+ * Every node of the trie is a prefix of at least one word, so the status of
+ * a node is WORD if a word ends there and PREFIX otherwise. A cursor keeps the
+ * nodes of its path, so advancing by a face and backing up again are O(1)
+ * instead of resolving the whole prefix on every call to wordStatus.
+ *
+ * The children of the nodes are kept in one int array, 26 entries per node,
+ * so only lower case letters a-z are stored.
+ *
+ * @author Cynthia Fan
+ */
+public class TrieLexicon implements ILexicon {
+
+	private static final int ALPHABET = 26;
+	private static final int ROOT = 0;
+	/** The node of prefixes that are not in the trie. */
+	private static final int NONE = -1;
+
+	/** The child of node n for letter ch is at myChildren[n * ALPHABET + ch - 'a']. */
+	private int[] myChildren;
+	/** The word that ends at each node, or null if none does. */
+	private String[] myWords;
+	private int myNodeCount;
+	private int mySize;
+
+	public TrieLexicon() {
+		clear();
+	}
+
+	private void clear() {
+		myChildren = new int[64 * ALPHABET];
+		myWords = new String[64];
+		Arrays.fill(myChildren, NONE);
+		myNodeCount = 1;
+		mySize = 0;
+	}
+
+	public void load(Scanner s) {
+		clear();
+		while (s.hasNext()) {
+			add(s.next());
+		}
+	}
+
+	public void load(ArrayList<String> list) {
+		clear();
+		for (String s : list) {
+			add(s);
+		}
+	}
+
+	/**
+	 * Adds a word to the trie. Words with characters other than letters are ignored.
+	 * @param s - the word to add
+	 */
+	private void add(String s) {
+		String word = s.toLowerCase();
+		for (int i = 0; i < word.length(); i++) {
+			if (word.charAt(i) < 'a' || word.charAt(i) > 'z') {
+				return;
+			}
+		}
+		int node = ROOT;
+		for (int i = 0; i < word.length(); i++) {
+			int index = node * ALPHABET + word.charAt(i) - 'a';
+			if (myChildren[index] == NONE) {
+				// newNode may grow myChildren, so it has to run before the store
+				int child = newNode();
+				myChildren[index] = child;
+			}
+			node = myChildren[index];
+		}
+		if (myWords[node] == null) {
+			myWords[node] = word;
+			mySize++;
+		}
+	}
+
+	private int newNode() {
+		if (myNodeCount == myWords.length) {
+			int oldLength = myChildren.length;
+			myChildren = Arrays.copyOf(myChildren, oldLength * 2);
+			Arrays.fill(myChildren, oldLength, myChildren.length, NONE);
+			myWords = Arrays.copyOf(myWords, myWords.length * 2);
+		}
+		return myNodeCount++;
+	}
+
+	/**
+	 * Returns the node reached from a node by a sequence of characters.
+	 * @param node - the node to start from, may be NONE
+	 * @param s - the characters to follow
+	 * @return the node, or NONE if no word starts with the characters
+	 */
+	private int walk(int node, CharSequence s) {
+		for (int i = 0; i < s.length() && node != NONE; i++) {
+			char ch = s.charAt(i);
+			node = ch >= 'a' && ch <= 'z' ? myChildren[node * ALPHABET + ch - 'a'] : NONE;
+		}
+		return node;
+	}
+
+	private LexStatus status(int node) {
+		if (node == NONE) {
+			return LexStatus.NOT_WORD;
+		}
+		return myWords[node] != null ? LexStatus.WORD : LexStatus.PREFIX;
+	}
+
+	public LexStatus wordStatus(StringBuilder s) {
+		return status(walk(ROOT, s));
+	}
+
+	public LexStatus wordStatus(String s) {
+		return status(walk(ROOT, s));
+	}
+
+	public int size() {
+		return mySize;
+	}
+
+	/** Returns the words in alphabetical order. */
+	public Iterator<String> iterator() {
+		List<String> words = new ArrayList<String>(mySize);
+		collect(ROOT, words);
+		return words.iterator();
+	}
+
+	private void collect(int node, List<String> words) {
+		if (myWords[node] != null) {
+			words.add(myWords[node]);
+		}
+		for (int ch = 0; ch < ALPHABET; ch++) {
+			if (myChildren[node * ALPHABET + ch] != NONE) {
+				collect(myChildren[node * ALPHABET + ch], words);
+			}
+		}
+	}
+
+	/**
+	 * Returns a new cursor at the empty prefix. Cursors are not thread safe,
+	 * use one per thread.
+	 * @return the cursor
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/** A position in the trie that can advance by one board face and back up again. */
+	public class Cursor {
+		/** The node after each face of the path; myPath[0] is the root. */
+		private int[] myPath = new int[16];
+		private int myDepth;
+
+		private Cursor() {
+			myPath[0] = ROOT;
+		}
+
+		/**
+		 * Advances by one board face, such as "a" or "qu".
+		 * @param face - the face to add to the prefix
+		 * @return the status of the new prefix
+		 */
+		public LexStatus advance(String face) {
+			if (myDepth + 1 == myPath.length) {
+				myPath = Arrays.copyOf(myPath, myPath.length * 2);
+			}
+			myPath[myDepth + 1] = walk(myPath[myDepth], face);
+			myDepth++;
+			return TrieLexicon.this.status(myPath[myDepth]);
+		}
+
+		/** Removes the last face that was added. */
+		public void retreat() {
+			if (myDepth == 0) {
+				throw new IllegalStateException("cursor is at the empty prefix");
+			}
+			myDepth--;
+		}
+
+		/** Goes back to the empty prefix. */
+		public void reset() {
+			myDepth = 0;
+		}
+
+		/** Returns the status of the current prefix. */
+		public LexStatus status() {
+			return TrieLexicon.this.status(myPath[myDepth]);
+		}
+
+		/** Returns the word at the cursor, or null if the prefix is not a word. */
+		public String getWord() {
+			return myPath[myDepth] == NONE ? null : myWords[myPath[myDepth]];
+		}
+	}
+}
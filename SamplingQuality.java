@@ -0,0 +1,12 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+/**
+ * The ways a pixel of a source image can be sampled when it is remapped
+ */
+public enum SamplingQuality {
+    /** Use the closest source pixel */
+    NEAREST,
+    /** Interpolate between the four closest source pixels */
+    BILINEAR
+}
@@ -0,0 +1,30 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+/**
+ * A {@link SphericalKernel} that converts one ray at a time
+ */
+final class ScalarSphericalKernel implements SphericalKernel {
+    private static final double TWO_PI = 2 * Math.PI;
+
+    @Override
+    public void toUV(float[] rayX, float[] rayY, float[] rayZ, int offset, int count, CameraRotation rotation,
+            float[] u, float[] v) {
+        final CameraRotation r = rotation;
+        for (int i = 0; i < count; i++) {
+            final double rx = rayX[offset + i];
+            final double ry = rayY[offset + i];
+            final double rz = rayZ[offset + i];
+            final double rotatedX = r.m00 * rx + r.m01 * ry + r.m02 * rz;
+            final double rotatedY = r.m11 * ry + r.m12 * rz;
+            final double rotatedZ = r.m20 * rx + r.m21 * ry + r.m22 * rz;
+            u[i] = (float) (0.5 + Math.atan2(rotatedX, rotatedZ) / TWO_PI);
+            v[i] = (float) (0.5 + Math.asin(Math.max(-1, Math.min(1, rotatedY))) / Math.PI);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "scalar spherical kernel";
+    }
+}
@@ -0,0 +1,144 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Downscaled copies of one image, built in the background by progressive halving.
+ * <p>
+ * Level {@code k} is half the size of level {@code k - 1}, and level 0 is the image itself. Every level is made
+ * from the previous one with a bilinear halving, which averages 2x2 pixels, so no source pixel is skipped.
+ * Every level is built, since the smaller levels are made from it, but a level is only kept if it fits in what is
+ * left of the memory budget after the larger levels that were kept. So a level that does not fit is skipped, and
+ * smaller levels after it may still be kept. The copies are dropped as soon as another image is requested, or
+ * when the cache is {@link #clear cleared}.
+ */
+final class ScaledImageCache {
+    /** Levels are not reduced any further once they are smaller than this */
+    private static final int MINIMUM_SIZE = 16;
+    private static final ExecutorService SCALER = Executors.newSingleThreadExecutor(
+            Utils.newThreadFactory("scaled-image-cache-%d", Thread.MIN_PRIORITY));
+
+    private final long maximumMemory;
+    private final Runnable onLevelsReady;
+    private final AtomicReference<Levels> levels = new AtomicReference<>();
+
+    /**
+     * The downscaled copies of one image
+     */
+    private static final class Levels {
+        /** This is only compared by identity */
+        private final BufferedImage image;
+        /** Level {@code k} is at index {@code k - 1}. It is {@code null} until it is built, or if it does not fit. */
+        private final AtomicReferenceArray<BufferedImage> scaled;
+        private volatile Future<?> future;
+
+        Levels(BufferedImage image) {
+            this.image = image;
+            int count = 0;
+            while ((image.getWidth() >> (count + 1)) >= MINIMUM_SIZE && (image.getHeight() >> (count + 1)) >= MINIMUM_SIZE) {
+                count++;
+            }
+            this.scaled = new AtomicReferenceArray<>(count);
+        }
+    }
+
+    /**
+     * Create a new cache
+     * @param maximumMemory The maximum number of bytes used by the downscaled copies
+     * @param onLevelsReady Called on the background thread once the copies of an image have been built
+     */
+    ScaledImageCache(long maximumMemory, Runnable onLevelsReady) {
+        this.maximumMemory = maximumMemory;
+        this.onLevelsReady = onLevelsReady;
+    }
+
+    /**
+     * Get the closest level of an image that has been built. If the image is new, building its levels is started.
+     * @param image The image
+     * @param level The wanted level. Levels above it would show fewer pixels than needed.
+     * @return The built level that is closest to the wanted level without being above it, or the image itself
+     */
+    BufferedImage getLevel(BufferedImage image, int level) {
+        final Levels current = getLevels(image);
+        for (int k = Math.min(level, current.scaled.length()); k > 0; k--) {
+            final BufferedImage scaled = current.scaled.get(k - 1);
+            if (scaled != null) {
+                return scaled;
+            }
+        }
+        return image;
+    }
+
+    private Levels getLevels(BufferedImage image) {
+        final Levels current = this.levels.get();
+        if (current != null && current.image == image) {
+            return current;
+        }
+        final Levels next = new Levels(image);
+        if (!this.levels.compareAndSet(current, next)) {
+            // Another thread has just started on another image
+            return next;
+        }
+        if (current != null && current.future != null) {
+            current.future.cancel(true);
+        }
+        next.future = SCALER.submit(() -> build(next));
+        return next;
+    }
+
+    private void build(Levels next) {
+        BufferedImage previous = next.image;
+        long used = 0;
+        for (int k = 1; k <= next.scaled.length(); k++) {
+            if (Thread.currentThread().isInterrupted() || this.levels.get() != next) {
+                return;
+            }
+            previous = halve(previous);
+            final long size = 4L * previous.getWidth() * previous.getHeight();
+            // Levels that do not fit are still needed to build the smaller levels
+            if (used + size <= this.maximumMemory) {
+                next.scaled.set(k - 1, previous);
+                used += size;
+            }
+        }
+        Logging.debug("Built {0} downscaled levels using {1} bytes for a {2}x{3} image", next.scaled.length(), used,
+                next.image.getWidth(), next.image.getHeight());
+        if (this.levels.get() == next) {
+            this.onLevelsReady.run();
+        }
+    }
+
+    private static BufferedImage halve(BufferedImage source) {
+        final BufferedImage half = new BufferedImage(Math.max(1, source.getWidth() / 2), Math.max(1, source.getHeight() / 2),
+                source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = half.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, half.getWidth(), half.getHeight(), null);
+        } finally {
+            g.dispose();
+        }
+        return half;
+    }
+
+    /**
+     * Drop the copies and stop building them
+     */
+    void clear() {
+        final Levels current = this.levels.getAndSet(null);
+        if (current != null && current.future != null) {
+            current.future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.image.BufferedImage;
+
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * A source image and its mip pyramid, which a viewer keeps for the image it painted last
+ */
+final class SourcePyramid {
+    /** This is only compared by identity */
+    private final BufferedImage image;
+    private final MipPyramid pyramid;
+
+    /**
+     * Create a new source pyramid
+     * @param image The source image
+     * @param pyramid The pyramid of the image
+     */
+    SourcePyramid(BufferedImage image, MipPyramid pyramid) {
+        this.image = image;
+        this.pyramid = pyramid;
+    }
+
+    /**
+     * Check if this is the pyramid of an image
+     * @param currentImage The image
+     * @return {@code true} if this pyramid was built for that very image
+     */
+    boolean isOf(BufferedImage currentImage) {
+        return this.image == currentImage;
+    }
+
+    /**
+     * Get the pyramid
+     * @return The mip pyramid of the image
+     */
+    MipPyramid getPyramid() {
+        return this.pyramid;
+    }
+
+    /**
+     * Build the mip pyramid of a source image. Its levels have the same type as the offscreen images.
+     * @param image The source image
+     * @param maximumMemory The maximum number of bytes the reduced levels may use
+     * @return The pyramid
+     */
+    static MipPyramid build(BufferedImage image, long maximumMemory) {
+        final MipPyramid pyramid = new MipPyramid(IntRaster.of(image), maximumMemory);
+        Logging.debug("Built mip pyramid with {0} levels using {1} bytes for a {2}x{3} image",
+                pyramid.getLevelCount(), pyramid.getMemoryUsage(), image.getWidth(), image.getHeight());
+        return pyramid;
+    }
+}
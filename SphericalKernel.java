@@ -0,0 +1,66 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Rotates a run of view rays and converts them to equirectangular (u, v) coordinates.
+ * <p>
+ * The rays and the coordinates are in structure-of-arrays form, so that implementations can process several
+ * pixels per instruction. The {@link #getDefault() default} kernel uses the Vector API if it is available, see
+ * {@link VectorSphericalKernel}, and {@link ScalarSphericalKernel} otherwise.
+ */
+interface SphericalKernel {
+    /** Use the Vector API kernel if the {@code jdk.incubator.vector} module is available */
+    BooleanProperty USE_VECTOR_API = new BooleanProperty("geoimage.viewer.equirectangular.vector", true);
+
+    /**
+     * Rotate rays and convert them to (u, v) coordinates
+     * @param rayX The x components of the rays
+     * @param rayY The y components of the rays
+     * @param rayZ The z components of the rays
+     * @param offset The index of the first ray
+     * @param count The number of rays
+     * @param rotation The rotation of the camera
+     * @param u The horizontal coordinates, from 0 to 1, written from index 0
+     * @param v The vertical coordinates, from 0 to 1, written from index 0
+     */
+    void toUV(float[] rayX, float[] rayY, float[] rayZ, int offset, int count, CameraRotation rotation,
+            float[] u, float[] v);
+
+    /**
+     * Get the fastest kernel that is available
+     * @return The kernel
+     */
+    static SphericalKernel getDefault() {
+        return DefaultKernel.KERNEL;
+    }
+
+    /**
+     * Holds the default kernel, which is only looked up once
+     */
+    final class DefaultKernel {
+        static final SphericalKernel KERNEL = load();
+
+        private DefaultKernel() {
+            // Hide the constructor
+        }
+
+        private static SphericalKernel load() {
+            if (USE_VECTOR_API.get()) {
+                try {
+                    // Loaded by name, since the class cannot be linked without the incubator module
+                    final SphericalKernel kernel = (SphericalKernel) Class.forName(
+                            SphericalKernel.class.getPackage().getName() + ".VectorSphericalKernel")
+                            .getDeclaredConstructor().newInstance();
+                    Logging.debug("Using {0}", kernel);
+                    return kernel;
+                } catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+                    Logging.debug("The Vector API is not available, using the scalar kernel: {0}", e);
+                }
+            }
+            return new ScalarSphericalKernel();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.util.Random;
+
+/**
+ * Checks that {@link VectorSphericalKernel} gives the same (u, v) coordinates as {@link ScalarSphericalKernel}
+ * for random rays and rotations, up to the rounding of its float arithmetic.
+ * <p>
+ * The vector kernel rotates the rays in floats, so every rotated component can be off by a few float ulps. That
+ * moves the yaw by at most that much divided by the distance to the poles, and the pitch by that much divided by
+ * the cosine of the pitch, but never by more than the square root of twice that much, where asin is steepest.
+ * <p>
+ * Run the {@link #main} method with {@code --add-modules jdk.incubator.vector}; it exits with status 1 if the
+ * bound does not hold.
+ */
+public final class SphericalKernelTest {
+    /** The error of a rotated component computed in floats: the rounding of the rotation, the products and sums */
+    private static final double ROTATION_ERROR = 4 * Math.ulp(1f);
+    /** The rounding error of storing a coordinate from 0 to 1 as a float, converted to radians around the equator */
+    private static final double FLOAT_ERROR = 2 * Math.PI * Math.ulp(1f);
+    /** The number of random rays, not a multiple of the vector length so that the last run is partial */
+    private static final int COUNT = 100_003;
+    /** The number of random rotations */
+    private static final int ROTATIONS = 50;
+
+    private SphericalKernelTest() {
+        // Hide the constructor
+    }
+
+    /**
+     * Run the checks
+     * @param args Ignored
+     */
+    public static void main(String[] args) {
+        final boolean passed = checkVectorKernel();
+        System.out.println(passed ? "All checks passed" : "Some checks FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Check the vector kernel against the scalar one for random rays, the axes, and random rotations
+     * @return {@code true} if the bound holds
+     */
+    private static boolean checkVectorKernel() {
+        final Random random = new Random(23);
+        // One ray in front of the table, so that the rays are read from an offset
+        final float[] rayX = new float[COUNT + 1];
+        final float[] rayY = new float[COUNT + 1];
+        final float[] rayZ = new float[COUNT + 1];
+        final float[][] axes = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+        for (int i = 0; i < rayX.length; i++) {
+            if (i < axes.length) {
+                rayX[i] = axes[i][0];
+                rayY[i] = axes[i][1];
+                rayZ[i] = axes[i][2];
+                continue;
+            }
+            final double x = random.nextGaussian();
+            final double y = random.nextGaussian();
+            final double z = random.nextGaussian();
+            final double length = Math.sqrt(x * x + y * y + z * z);
+            rayX[i] = (float) (x / length);
+            rayY[i] = (float) (y / length);
+            rayZ[i] = (float) (z / length);
+        }
+        final SphericalKernel scalar = new ScalarSphericalKernel();
+        final SphericalKernel vector = new VectorSphericalKernel();
+        final float[] exactU = new float[COUNT];
+        final float[] exactV = new float[COUNT];
+        final float[] vectorU = new float[COUNT];
+        final float[] vectorV = new float[COUNT];
+        double maximumYaw = 0;
+        double maximumPitch = 0;
+        boolean passed = true;
+        for (int rotation = 0; rotation <= ROTATIONS; rotation++) {
+            // The first rotation is the identity, which maps the axes onto the poles and the seam
+            final CameraRotation r = rotation == 0 ? new CameraRotation(0, 0)
+                    : new CameraRotation(2 * Math.PI * random.nextDouble(), Math.PI * (random.nextDouble() - 0.5));
+            scalar.toUV(rayX, rayY, rayZ, 1, COUNT, r, exactU, exactV);
+            vector.toUV(rayX, rayY, rayZ, 1, COUNT, r, vectorU, vectorV);
+            for (int i = 0; i < COUNT; i++) {
+                final double cosPitch = Math.cos(Math.PI * (exactV[i] - 0.5));
+                final double uError = Math.abs(vectorU[i] - exactU[i]);
+                // Around the seam, u = 0 and u = 1 are the same point
+                final double yawError = 2 * Math.PI * Math.min(uError, 1 - uError) * cosPitch;
+                final double pitchError = Math.PI * Math.abs(vectorV[i] - exactV[i]);
+                final double pitchBound = Math.min(ROTATION_ERROR / cosPitch, Math.sqrt(2 * ROTATION_ERROR))
+                        + FLOAT_ERROR;
+                maximumYaw = Math.max(maximumYaw, yawError);
+                maximumPitch = Math.max(maximumPitch, pitchError);
+                if (pitchError > pitchBound) {
+                    System.out.println(String.format("pitch of ray %d off by %.3e rad, bound %.3e rad", i, pitchError,
+                            pitchBound));
+                    passed = false;
+                }
+            }
+        }
+        passed &= report("vector yaw", maximumYaw, ROTATION_ERROR + FLOAT_ERROR);
+        passed &= report("vector pitch", maximumPitch, Math.sqrt(2 * ROTATION_ERROR) + FLOAT_ERROR);
+        return passed;
+    }
+
+    private static boolean report(String name, double maximum, double bound) {
+        final boolean passed = maximum <= bound;
+        System.out.println(String.format("%-12s maximum error %.3e rad, bound %.3e rad: %s", name, maximum, bound,
+                passed ? "passed" : "FAILED"));
+        return passed;
+    }
+}
@@ -0,0 +1,288 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * An image source that only keeps the tiles of a (very large) image that are actually sampled.
+ * <p>
+ * Tiles are decoded one tile row at a time: a full width strip is read with a
+ * {@link ImageReadParam#setSourceRegion source region} and cut into tiles that share its pixels. Reduced levels
+ * are read with {@link ImageReadParam#setSourceSubsampling source subsampling}. Decoded tiles are kept in a least
+ * recently used cache with a bounded size, so the heap use depends on the size of the viewport rather than the
+ * size of the image. A strip is only released once all of its tiles have been evicted. The tiles of the strip
+ * that was decoded last are never evicted, so the cache can exceed its size by at most one strip.
+ * <p>
+ * The decoding time does not scale as well for every format. Baseline JPEG has no index of its rows, so reading
+ * a strip decodes every row above it too, and a strip near the bottom of the image costs nearly a full decode.
+ * Reading whole strips makes that cost once per tile row instead of once per tile, but a view near the nadir of
+ * a large JPEG still takes several times longer to show than a view near the zenith.
+ * @see Equirectangular#setTiledSource(TiledImageSource)
+ */
+public final class TiledImageSource implements Closeable {
+    /** The size of a tile, in pixels of its level. This must be a power of two. */
+    static final int TILE_SIZE = 512;
+    private static final int TILE_SHIFT = Integer.numberOfTrailingZeros(TILE_SIZE);
+    /** Levels are not reduced any further once they are smaller than this */
+    private static final int MINIMUM_SIZE = 16;
+
+    private final File file;
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int levelCount;
+    private final long maximumCacheSize;
+    /** The decoded tiles, in access order. Guarded by {@code this}. */
+    private final LinkedHashMap<Long, IntRaster> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheSize;
+
+    /**
+     * Open an image. Only the header is read.
+     * @param file The image file
+     * @param maximumCacheSize The maximum number of bytes used by decoded tiles
+     * @throws IOException if the file cannot be read, or if there is no reader for it
+     */
+    public TiledImageSource(File file, long maximumCacheSize) throws IOException {
+        this.file = file;
+        this.maximumCacheSize = maximumCacheSize;
+        this.input = ImageIO.createImageInputStream(file);
+        if (this.input == null) {
+            throw new IOException("Cannot open " + file);
+        }
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(this.input);
+        if (!readers.hasNext()) {
+            this.input.close();
+            throw new IOException("No image reader for " + file);
+        }
+        this.reader = readers.next();
+        this.reader.setInput(this.input, true, true);
+        this.width = this.reader.getWidth(0);
+        this.height = this.reader.getHeight(0);
+        int levels = 1;
+        while ((this.width >> levels) >= MINIMUM_SIZE && (this.height >> levels) >= MINIMUM_SIZE) {
+            levels++;
+        }
+        this.levelCount = levels;
+    }
+
+    /**
+     * Get the file the tiles are read from
+     * @return The image file
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Get the width of the full resolution image
+     * @return The width in pixels
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * Get the height of the full resolution image
+     * @return The height in pixels
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Get the number of levels that can be read, including the full resolution level
+     * @return The number of levels
+     */
+    int getLevelCount() {
+        return this.levelCount;
+    }
+
+    /**
+     * Get the memory currently used by decoded tiles
+     * @return The number of bytes in the tile cache
+     */
+    public synchronized long getCacheSize() {
+        return this.cacheSize;
+    }
+
+    /**
+     * Get a view of a level. Tiles are decoded when a pixel in them is first requested.
+     * A view keeps the tiles it has used, so it should only be used for one frame.
+     * @param level The level, {@code 0} is the full resolution
+     * @return The view
+     */
+    PixelSource getView(int level) {
+        return new TileView(level);
+    }
+
+    /**
+     * Get a tile, decoding its tile row if it is not in the cache
+     * @param level The level of the tile
+     * @param column The column of the tile
+     * @param row The row of the tile
+     * @return The decoded tile
+     * @throws UncheckedIOException if the tile cannot be decoded
+     */
+    IntRaster getTile(int level, int column, int row) {
+        final long key = getKey(level, column, row);
+        synchronized (this) {
+            final IntRaster cached = this.cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Image readers are not thread safe
+        synchronized (this.reader) {
+            // Another thread may have decoded the row while this one was waiting
+            synchronized (this) {
+                final IntRaster cached = this.cache.get(key);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            final IntRaster[] tiles = decodeRow(level, row);
+            synchronized (this) {
+                for (int i = 0; i < tiles.length; i++) {
+                    if (i != column) {
+                        put(getKey(level, i, row), tiles[i]);
+                    }
+                }
+                // The requested tile is the most recently used one
+                put(key, tiles[column]);
+                // The next tiles of the frame are likely in the same strip. Evicting them would decode the whole
+                // strip again for each of them.
+                final long stripKey = getStripKey(key);
+                final Iterator<Map.Entry<Long, IntRaster>> iterator = this.cache.entrySet().iterator();
+                while (this.cacheSize > this.maximumCacheSize && iterator.hasNext()) {
+                    final Map.Entry<Long, IntRaster> entry = iterator.next();
+                    if (getStripKey(entry.getKey()) != stripKey) {
+                        iterator.remove();
+                        this.cacheSize -= 4L * entry.getValue().getWidth() * entry.getValue().getHeight();
+                    }
+                }
+            }
+            return tiles[column];
+        }
+    }
+
+    private static long getKey(int level, int column, int row) {
+        return ((long) level << 48) | ((long) column << 24) | row;
+    }
+
+    /**
+     * Get the key of the strip a tile belongs to
+     * @param key The key of the tile
+     * @return The key with the column removed
+     */
+    private static long getStripKey(long key) {
+        return key & ~(0xffffffL << 24);
+    }
+
+    private void put(long key, IntRaster tile) {
+        final IntRaster previous = this.cache.put(key, tile);
+        if (previous != null) {
+            this.cacheSize -= 4L * previous.getWidth() * previous.getHeight();
+        }
+        this.cacheSize += 4L * tile.getWidth() * tile.getHeight();
+    }
+
+    /**
+     * Decode a full width strip of a level and cut it into tiles. The caller must hold the reader lock.
+     * @param level The level of the strip
+     * @param row The tile row of the strip
+     * @return The tiles of the row, from left to right
+     */
+    private IntRaster[] decodeRow(int level, int row) {
+        final int factor = 1 << level;
+        final Rectangle region = new Rectangle(0, row * TILE_SIZE * factor, this.width, TILE_SIZE * factor)
+                .intersection(new Rectangle(0, 0, this.width, this.height));
+        final ImageReadParam param = this.reader.getDefaultReadParam();
+        param.setSourceRegion(region);
+        param.setSourceSubsampling(factor, factor, 0, 0);
+        final BufferedImage strip;
+        try {
+            strip = IntRaster.of(this.reader.read(0, param)).getImage();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final IntRaster[] tiles = new IntRaster[RayTable.ceilDiv(strip.getWidth(), TILE_SIZE)];
+        for (int column = 0; column < tiles.length; column++) {
+            final int x = column * TILE_SIZE;
+            tiles[column] = IntRaster.of(strip.getSubimage(x, 0, Math.min(TILE_SIZE, strip.getWidth() - x),
+                    strip.getHeight()));
+        }
+        Logging.trace("Decoded tile row {0}/{1} of {2}", level, row, this.file);
+        return tiles;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this.reader) {
+            this.reader.dispose();
+            this.input.close();
+        }
+        synchronized (this) {
+            this.cache.clear();
+            this.cacheSize = 0;
+        }
+    }
+
+    /**
+     * A view of one level of the image, for one frame
+     */
+    private final class TileView implements PixelSource {
+        private final int level;
+        private final int levelWidth;
+        private final int levelHeight;
+        private final int columns;
+        /** The tiles used so far. Band threads may race to fill a slot, which only costs a cache lookup. */
+        private final IntRaster[] tiles;
+
+        TileView(int level) {
+            this.level = level;
+            this.levelWidth = RayTable.ceilDiv(TiledImageSource.this.width, 1 << level);
+            this.levelHeight = RayTable.ceilDiv(TiledImageSource.this.height, 1 << level);
+            this.columns = RayTable.ceilDiv(this.levelWidth, TILE_SIZE);
+            this.tiles = new IntRaster[this.columns * RayTable.ceilDiv(this.levelHeight, TILE_SIZE)];
+        }
+
+        @Override
+        public int getWidth() {
+            return this.levelWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return this.levelHeight;
+        }
+
+        @Override
+        public int getPixel(int x, int y) {
+            final int column = x >> TILE_SHIFT;
+            final int row = y >> TILE_SHIFT;
+            final int index = row * this.columns + column;
+            IntRaster tile = this.tiles[index];
+            if (tile == null) {
+                tile = getTile(this.level, column, row);
+                this.tiles[index] = tile;
+            }
+            return tile.getPixel(x & (TILE_SIZE - 1), y & (TILE_SIZE - 1));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link SphericalKernel} that converts as many rays at a time as the preferred vector shape of the CPU holds
+ * (8 with AVX2). The rotation is done with fused multiply-adds, and atan2 and asin use the vectorized math
+ * intrinsics of the JVM.
+ * <p>
+ * This class needs {@code --add-modules jdk.incubator.vector} to compile and to run. It is only loaded by name
+ * from {@link SphericalKernel#getDefault()}, so the rest of the viewer works without the module.
+ */
+final class VectorSphericalKernel implements SphericalKernel {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final float INVERSE_TWO_PI = (float) (1 / (2 * Math.PI));
+    private static final float INVERSE_PI = (float) (1 / Math.PI);
+
+    /**
+     * Create a new kernel
+     * @throws UnsupportedOperationException if the CPU cannot process at least 4 floats at a time
+     */
+    VectorSphericalKernel() {
+        if (SPECIES.length() < 4) {
+            throw new UnsupportedOperationException("Only " + SPECIES.length() + " float lanes");
+        }
+    }
+
+    @Override
+    public void toUV(float[] rayX, float[] rayY, float[] rayZ, int offset, int count, CameraRotation rotation,
+            float[] u, float[] v) {
+        final FloatVector m00 = FloatVector.broadcast(SPECIES, (float) rotation.m00);
+        final FloatVector m01 = FloatVector.broadcast(SPECIES, (float) rotation.m01);
+        final FloatVector m02 = FloatVector.broadcast(SPECIES, (float) rotation.m02);
+        final FloatVector m11 = FloatVector.broadcast(SPECIES, (float) rotation.m11);
+        final FloatVector m12 = FloatVector.broadcast(SPECIES, (float) rotation.m12);
+        final FloatVector m20 = FloatVector.broadcast(SPECIES, (float) rotation.m20);
+        final FloatVector m21 = FloatVector.broadcast(SPECIES, (float) rotation.m21);
+        final FloatVector m22 = FloatVector.broadcast(SPECIES, (float) rotation.m22);
+        for (int i = 0; i < count; i += SPECIES.length()) {
+            // The last run of rays may not fill a vector
+            final VectorMask<Float> mask = SPECIES.indexInRange(i, count);
+            final FloatVector x = FloatVector.fromArray(SPECIES, rayX, offset + i, mask);
+            final FloatVector y = FloatVector.fromArray(SPECIES, rayY, offset + i, mask);
+            final FloatVector z = FloatVector.fromArray(SPECIES, rayZ, offset + i, mask);
+            final FloatVector rotatedX = x.fma(m00, y.fma(m01, z.mul(m02)));
+            final FloatVector rotatedY = y.fma(m11, z.mul(m12));
+            final FloatVector rotatedZ = x.fma(m20, y.fma(m21, z.mul(m22)));
+            rotatedX.lanewise(VectorOperators.ATAN2, rotatedZ).fma(INVERSE_TWO_PI, 0.5f).intoArray(u, i, mask);
+            rotatedY.max(-1f).min(1f).lanewise(VectorOperators.ASIN).fma(INVERSE_PI, 0.5f).intoArray(v, i, mask);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "vector spherical kernel with " + SPECIES.length() + " float lanes";
+    }
+}
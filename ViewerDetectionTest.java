@@ -0,0 +1,165 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.openstreetmap.josm.data.imagery.street_level.Projections;
+
+/**
+ * Checks that the detected viewers only take the images they are meant for: raw fisheye frames go to
+ * {@link Fisheye} once detection is turned on, while ordinary perspective images with dark corners stay with
+ * {@link Perspective}, and so do wide images unless {@link Cylindrical} detection is turned on.
+ * <p>
+ * Run the {@link #main} method; it exits with status 1 if a check fails.
+ */
+public final class ViewerDetectionTest {
+    private ViewerDetectionTest() {
+        // Hide the constructor
+    }
+
+    /**
+     * Run the checks
+     * @param args Ignored
+     */
+    public static void main(String[] args) {
+        boolean passed = checkFisheye();
+        passed &= checkCylindrical();
+        System.out.println(passed ? "All checks passed" : "Some checks FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Check the fisheye detector on fisheye frames and on perspective images with dark corners, with detection
+     * turned off as by default, and turned on
+     * @return {@code true} if every image resolves to the expected viewer
+     */
+    private static boolean checkFisheye() {
+        final BufferedImage fisheye = createFisheye(1000, 1000, 1);
+        final BufferedImage dualFisheye = createFisheye(2000, 1000, 2);
+        final BufferedImage vignetted = createVignetted(1000, 800);
+        final BufferedImage night = createNight(1200, 800);
+        final BufferedImage letterboxed = createLetterboxed(1600, 900);
+        boolean passed = true;
+        // Detection is off by default
+        passed &= check("fisheye, detection off", fisheye, Perspective.class);
+        passed &= check("dual fisheye, detection off", dualFisheye, Perspective.class);
+        ImageProjectionRegistry.registerDetectedViewer(Fisheye.class, Fisheye::new, Fisheye::looksLikeFisheyeFrame);
+        try {
+            passed &= check("fisheye", fisheye, Fisheye.class);
+            passed &= check("dual fisheye", dualFisheye, Fisheye.class);
+            passed &= check("vignetted", vignetted, Perspective.class);
+            passed &= check("night", night, Perspective.class);
+            passed &= check("letterboxed", letterboxed, Perspective.class);
+        } finally {
+            ImageProjectionRegistry.registerDetectedViewer(Fisheye.class, Fisheye::new, Fisheye::isFisheyeFrame);
+        }
+        return passed;
+    }
+
+    /**
+     * Check that wide perspective images are not shown as cylindrical panoramas by default
+     * @return {@code true} if every image resolves to the expected viewer
+     */
+    private static boolean checkCylindrical() {
+        final BufferedImage wide = createLetterboxed(4000, 1000);
+        boolean passed = check("wide crop, detection off", wide, Perspective.class);
+        ImageProjectionRegistry.registerDetectedViewer(Cylindrical.class, Cylindrical::new,
+                image -> image.getWidth() >= 3 * image.getHeight());
+        try {
+            passed &= check("wide crop, detection on", wide, Cylindrical.class);
+        } finally {
+            ImageProjectionRegistry.registerDetectedViewer(Cylindrical.class, Cylindrical::new,
+                    Cylindrical::isCylindricalPanorama);
+        }
+        return passed;
+    }
+
+    private static boolean check(String name, BufferedImage image, Class<? extends IImageViewer> expected) {
+        final Class<? extends IImageViewer> actual = ImageProjectionRegistry.getViewer(Projections.PERSPECTIVE, image);
+        final boolean passed = expected.equals(actual);
+        System.out.println(String.format("%-28s %-14s %s", name, actual.getSimpleName(), passed ? "passed" : "FAILED"));
+        return passed;
+    }
+
+    /**
+     * Create a fisheye frame: textured lens circles that fill their squares, on black
+     * @param width The width of the frame
+     * @param height The height of the frame
+     * @param circles The number of lens circles, side by side
+     * @return The frame
+     */
+    private static BufferedImage createFisheye(int width, int height, int circles) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final int circleWidth = width / circles;
+        final double radius = Math.min(circleWidth, height) / 2.0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final double dx = x % circleWidth + 0.5 - circleWidth / 2.0;
+                final double dy = y + 0.5 - height / 2.0;
+                if (dx * dx + dy * dy < radius * radius) {
+                    image.setRGB(x, y, new Color(60 + x * 7 % 150, 80 + y * 3 % 120, 90).getRGB());
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Create a perspective image whose brightness falls off towards black corners
+     * @param width The width of the image
+     * @param height The height of the image
+     * @return The image
+     */
+    private static BufferedImage createVignetted(int width, int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final double corner = Math.hypot(width / 2.0, height / 2.0);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final double distance = Math.hypot(x + 0.5 - width / 2.0, y + 0.5 - height / 2.0) / corner;
+                final int value = (int) Math.max(0, 180 * (1 - 1.3 * distance * distance));
+                image.setRGB(x, y, new Color(value, value, value).getRGB());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Create a night shot: a black sky over a lit street, with black corners
+     * @param width The width of the image
+     * @param height The height of the image
+     * @return The image
+     */
+    private static BufferedImage createNight(int width, int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(new Color(200, 160, 90));
+            g.fillRect(width / 8, height / 3, width * 3 / 4, height / 2);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Create a letterboxed image: a lit picture between black bars
+     * @param width The width of the image
+     * @param height The height of the image
+     * @return The image
+     */
+    private static BufferedImage createLetterboxed(int width, int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(new Color(90, 140, 200));
+            g.fillRect(0, height / 6, width, height * 2 / 3);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+}
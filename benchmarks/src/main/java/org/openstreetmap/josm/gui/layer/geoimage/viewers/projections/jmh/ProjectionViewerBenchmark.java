@@ -0,0 +1,252 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage.viewers.projections.jmh;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.swing.JPanel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.josm.gui.layer.geoimage.ImageDisplay;
+import org.openstreetmap.josm.gui.layer.geoimage.viewers.projections.Equirectangular;
+import org.openstreetmap.josm.gui.layer.geoimage.viewers.projections.IImageViewer;
+import org.openstreetmap.josm.gui.layer.geoimage.viewers.projections.Perspective;
+import org.openstreetmap.josm.gui.util.imagery.CameraPlane;
+import org.openstreetmap.josm.gui.util.imagery.Vector3D;
+
+/**
+ * Benchmarks for rendering one frame through the {@link IImageViewer} API, and through {@link CameraPlane#mapping}.
+ * <p>
+ * The benchmarks only use the public viewer API, like {@code ImageDisplay} does: the rotation is set up with
+ * mouse drags. Every invocation renders a full frame: the frames alternate between two prepared images that share
+ * the same pixels, so the frame cache of {@link Equirectangular} never skips the remap. Dragging before each frame
+ * would render the reduced resolution drag preview instead. Results are in ns/frame.
+ * <p>
+ * This is a module of its own, so that the JOSM build does not depend on JMH. Install a JOSM jar with the
+ * projection viewers into the local repository as the {@code josm.version} of {@code benchmarks/pom.xml}, then
+ * build the benchmarks and run them with the GC profiler to get the allocation rate per frame:
+ * <pre>
+ * mvn -f benchmarks/pom.xml package
+ * java -jar benchmarks/target/benchmarks.jar ProjectionViewerBenchmark -prof gc
+ * </pre>
+ * The forks run headless, with enough heap for the 16k sources (a 16384x8192 source is 512 MiB).
+ * The source is synthetic by default. Set {@code -p source=/path/to/panorama.jpg} to render a real image,
+ * which is scaled to each of the source widths.
+ * @since xxx
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class ProjectionViewerBenchmark {
+    /** The width of the equirectangular source. Its height is half of that. */
+    @Param({"4096", "8192", "16384"})
+    public int sourceWidth;
+
+    /** The size of the viewport */
+    @Param({"800x600", "1920x1080"})
+    public String viewport;
+
+    /** The yaw and pitch of the camera, in degrees */
+    @Param({"0,0", "90,45"})
+    public String rotation;
+
+    /** {@code synthetic}, or the path of a real equirectangular image */
+    @Param("synthetic")
+    public String source;
+
+    private BufferedImage sourceImage;
+    /** The source image and a copy of it that shares its pixels */
+    private BufferedImage[] sourceImages;
+    private BufferedImage frame;
+    private Graphics2D graphics;
+    private Rectangle visibleRect;
+    private Equirectangular equirectangular;
+    private ImageDisplay.VisRect dragRect;
+    private Point center;
+    private Perspective perspective;
+    private CameraPlane cameraPlane;
+    private BufferedImage cameraPlaneTarget;
+    private int frameCount;
+
+    /**
+     * Create the source image, the viewers and the frame to render into
+     * @throws IOException if the real source image cannot be read
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.sourceImage = "synthetic".equals(this.source) ? createSynthetic(this.sourceWidth)
+                : readScaled(new File(this.source), this.sourceWidth);
+        final String[] size = this.viewport.split("x", -1);
+        final int width = Integer.parseInt(size[0]);
+        final int height = Integer.parseInt(size[1]);
+        final String[] angles = this.rotation.split(",", -1);
+        final double yaw = Math.toRadians(Double.parseDouble(angles[0]));
+        final double pitch = Math.toRadians(Double.parseDouble(angles[1]));
+
+        this.frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this.graphics = this.frame.createGraphics();
+        this.visibleRect = new Rectangle(0, 0, width, height);
+
+        final JPanel display = new JPanel();
+        display.setSize(width, height);
+        this.equirectangular = new Equirectangular();
+        this.equirectangular.componentResized(new ComponentEvent(display, ComponentEvent.COMPONENT_RESIZED));
+        this.dragRect = new ImageDisplay.VisRect(0, 0, width, height);
+        this.center = new Point(width / 2, height / 2);
+        dragTo(this.equirectangular, yaw, pitch);
+        this.sourceImages = new BufferedImage[] {this.sourceImage, new BufferedImage(this.sourceImage.getColorModel(),
+                this.sourceImage.getRaster(), this.sourceImage.isAlphaPremultiplied(), null)};
+        for (BufferedImage image : this.sourceImages) {
+            this.equirectangular.prepare(image);
+        }
+        this.perspective = new Perspective();
+
+        this.cameraPlane = new CameraPlane(width, height);
+        this.cameraPlane.setRotation(new Vector3D(Vector3D.VectorType.RPA, 1, yaw, pitch));
+        this.cameraPlaneTarget = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Release the graphics and the prepared images
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.graphics.dispose();
+        for (BufferedImage image : this.sourceImages) {
+            this.equirectangular.discard(image);
+        }
+    }
+
+    /**
+     * Render a frame through {@link Equirectangular#paintImage}
+     * @return The frame, so that it is not optimized away
+     */
+    @Benchmark
+    public BufferedImage equirectangular() {
+        this.frameCount++;
+        this.equirectangular.paintImage(this.graphics, this.sourceImages[this.frameCount & 1], this.visibleRect,
+                this.visibleRect);
+        return this.frame;
+    }
+
+    /**
+     * Render a frame through {@link Equirectangular#paintImage} with the legacy camera plane mapping
+     * @return The frame, so that it is not optimized away
+     */
+    @Benchmark
+    public BufferedImage equirectangularCameraPlaneMode() {
+        this.equirectangular.setMappingMode(Equirectangular.MappingMode.CAMERA_PLANE);
+        try {
+            return equirectangular();
+        } finally {
+            this.equirectangular.setMappingMode(Equirectangular.MappingMode.RAY_TABLE);
+        }
+    }
+
+    /**
+     * Map a frame through {@link CameraPlane#mapping}, without any viewer
+     * @return The frame, so that it is not optimized away
+     */
+    @Benchmark
+    public BufferedImage cameraPlaneMapping() {
+        this.cameraPlane.mapping(this.sourceImage, this.cameraPlaneTarget, this.visibleRect);
+        return this.cameraPlaneTarget;
+    }
+
+    /**
+     * Render a frame through {@link Perspective#paintImage}, showing the top left part of the source
+     * @return The frame, so that it is not optimized away
+     */
+    @Benchmark
+    public BufferedImage perspective() {
+        this.perspective.paintImage(this.graphics, this.sourceImage, this.visibleRect, this.visibleRect);
+        return this.frame;
+    }
+
+    /**
+     * Rotate a viewer by dragging from the center of the viewport, one pixel at a time, until it is close to
+     * a rotation. Dragging a point next to the center onto the center turns the view towards that point.
+     * @param viewer The viewer, which must have been sized
+     * @param yaw The rotation around the vertical axis, in radians
+     * @param pitch The rotation around the horizontal axis, in radians
+     */
+    private void dragTo(IImageViewer viewer, double yaw, double pitch) {
+        final Point from = new Point();
+        for (int step = 0; step < 100_000; step++) {
+            final Vector3D current = viewer.getRotation();
+            final double yawError = yaw - current.getPolarAngle();
+            final double pitchError = pitch - current.getAzimuthalAngle();
+            if (Math.abs(yawError) < 0.01 && Math.abs(pitchError) < 0.01) {
+                return;
+            }
+            from.setLocation(this.center.x + (Math.abs(yawError) < 0.01 ? 0 : (int) Math.signum(yawError)),
+                    this.center.y + (Math.abs(pitchError) < 0.01 ? 0 : (int) Math.signum(pitchError)));
+            viewer.mouseDragged(from, this.center, this.dragRect);
+        }
+        throw new IllegalStateException("Cannot drag the view to " + yaw + ", " + pitch);
+    }
+
+    /**
+     * Create a synthetic equirectangular image with detail at every scale: a grid of latitude and longitude lines
+     * over a smooth gradient
+     * @param width The width of the image
+     * @return The image
+     */
+    private static BufferedImage createSynthetic(int width) {
+        final int height = width / 2;
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final boolean line = x % 64 == 0 || y % 64 == 0;
+                row[x] = line ? 0xFFFFFFFF : 0xFF000000 | (x * 255 / width) << 16 | (y * 255 / height) << 8 | (x ^ y) & 0xFF;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * Read a real image and scale it to the given width, with an aspect ratio of 2:1
+     * @param file The image file
+     * @param width The width of the scaled image
+     * @return The scaled image
+     * @throws IOException if the image cannot be read
+     */
+    private static BufferedImage readScaled(File file, int width) throws IOException {
+        final BufferedImage read = ImageIO.read(file);
+        if (read == null) {
+            throw new IOException("Cannot read " + file);
+        }
+        final BufferedImage scaled = new BufferedImage(width, width / 2, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g = scaled.createGraphics();
+        try {
+            g.drawImage(read, 0, 0, width, width / 2, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+}